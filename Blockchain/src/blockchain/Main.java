@@ -1,9 +1,68 @@
 package blockchain;
 
+import blockchain.api.BlockExporter;
 import blockchain.controller.BlockchainController;
+import blockchain.controller.NodeOptions;
+import blockchain.controller.Simulation;
+import blockchain.storage.BlockStore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static blockchain.config.BlockchainConfig.BLOCKS_PER_SEGMENT;
+import static blockchain.config.BlockchainConfig.BLOCK_STORE_COMPRESSION;
+import static blockchain.config.BlockchainConfig.BLOCK_STORE_PATH;
 
 public class Main {
     public static void main(String[] args) {
-        new BlockchainController().run();
+        NodeOptions options = NodeOptions.parse(args);
+        if (options.isExport()) {
+            try {
+                export(options);
+            } catch (IOException e) {
+                System.err.println("cannot export blocks\n" + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (!options.isSimulation()) {
+            new BlockchainController(options).run();
+            return;
+        }
+        try {
+            Simulation.load(options.getWorkload(), options.getSeed()).run();
+        } catch (IOException e) {
+            System.err.println("cannot run simulation\n" + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Exports the block store of the working directory, the summary goes to standard error, as standard
+     * output may be the export itself.
+     */
+    private static void export(NodeOptions options) throws IOException {
+        BlockStore store = new BlockStore(Path.of(BLOCK_STORE_PATH), BLOCKS_PER_SEGMENT, BLOCK_STORE_COMPRESSION);
+        BlockExporter exporter = new BlockExporter(options.getExportFormat(), options.getExportFrom());
+        long start = System.nanoTime();
+        if (options.getExport().equals("-")) {
+            exporter.export(store, System.out, true);
+        } else {
+            // an export from a later height continues the existing file
+            Path file = Path.of(options.getExport());
+            boolean resumed = options.getExportFrom() > 1 && Files.exists(file) && Files.size(file) > 0;
+            try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    resumed ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+                exporter.export(store, out, !resumed);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("exported %d blocks, %d transactions up to height %d in %.1f s, %.0f blocks/s, "
+                        + "%.0f transactions/s%n", exporter.getBlocks(), exporter.getTransactions(),
+                exporter.getLastHeight(), seconds, exporter.getBlocks() / seconds,
+                exporter.getTransactions() / seconds);
     }
 }
@@ -0,0 +1,175 @@
+package blockchain.api;
+
+import blockchain.model.Block;
+import blockchain.model.SignedTransaction;
+import blockchain.storage.BlockStore;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static blockchain.config.BlockchainConfig.EXPORT_CHUNK_BLOCKS;
+
+/**
+ * Streams the blocks of a block store to a file or pipe for analytics, walking the store sequentially
+ * with BlockStore.forEach(), so memory stays bounded however long the chain is.
+ * NDJSON writes one line per block, the transactions nested as in the query endpoint.
+ * BINARY is columnar: a header "BCEX" and version, then chunks of up to EXPORT_CHUNK_BLOCKS blocks, each
+ * starting with its block and transaction count and its own table of account names, so a resumed export
+ * can be appended. One column per field follows: heights, timestamps, miner ids, zeros, transaction counts,
+ * hashes, previous hashes and Merkle roots of the blocks, then senders and receivers as numbers in the
+ * account table, amounts, nonces and key ids of the transactions.
+ * The blocks are exported in store order, side branch blocks included, each knows its previous hash.
+ */
+public class BlockExporter {
+    private static final int BINARY_MAGIC = 0x42434558; // "BCEX"
+    private static final int BINARY_VERSION = 1;
+
+    public enum Format { NDJSON, BINARY }
+
+    private final Format format;
+    private final long fromHeight;
+    private long blocks;
+    private long transactions;
+    private long lastHeight;
+
+    /**
+     * @param fromHeight blocks with a lower height are skipped, to resume an interrupted export
+     */
+    public BlockExporter(Format format, long fromHeight) {
+        this.format = format;
+        this.fromHeight = fromHeight;
+    }
+
+    /**
+     * @param out receives the export, it is flushed but not closed
+     * @param withHeader whether a binary export starts with the header, false to append to a resumed export
+     */
+    public void export(BlockStore store, OutputStream out, boolean withHeader) throws IOException {
+        if (format == Format.NDJSON) {
+            exportJson(store, out);
+        } else {
+            exportBinary(store, out, withHeader);
+        }
+    }
+
+    private void exportJson(BlockStore store, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(new BufferedOutputStream(out, 1 << 16), StandardCharsets.UTF_8);
+        StringBuilder line = new StringBuilder(1024);
+        store.forEach(fromHeight, block -> {
+            line.setLength(0);
+            writer.append(BlockJson.appendBlock(line, block).append('\n'));
+            count(block);
+        });
+        writer.flush();
+    }
+
+    private void exportBinary(BlockStore store, OutputStream out, boolean withHeader) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        if (withHeader) {
+            data.writeInt(BINARY_MAGIC);
+            data.writeByte(BINARY_VERSION);
+        }
+        List<Block> chunk = new ArrayList<>(EXPORT_CHUNK_BLOCKS);
+        store.forEach(fromHeight, block -> {
+            chunk.add(block);
+            count(block);
+            if (chunk.size() == EXPORT_CHUNK_BLOCKS) {
+                writeChunk(data, chunk);
+                chunk.clear();
+            }
+        });
+        if (!chunk.isEmpty()) {
+            writeChunk(data, chunk);
+        }
+        data.flush();
+    }
+
+    private static void writeChunk(DataOutputStream data, List<Block> chunk) throws IOException {
+        List<SignedTransaction> transactions = new ArrayList<>();
+        chunk.forEach(block -> transactions.addAll(block.getTransactions()));
+        Map<String, Integer> accounts = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (SignedTransaction transaction : transactions) {
+            for (String account : List.of(transaction.getSender(), transaction.getReceiver())) {
+                if (accounts.putIfAbsent(account, accounts.size()) == null) {
+                    names.add(account);
+                }
+            }
+        }
+        data.writeInt(chunk.size());
+        data.writeInt(transactions.size());
+        data.writeInt(names.size());
+        for (String account : names) {
+            data.writeUTF(account);
+        }
+        for (Block block : chunk) {
+            data.writeLong(block.getId());
+        }
+        for (Block block : chunk) {
+            data.writeLong(block.getTimeStamp());
+        }
+        for (Block block : chunk) {
+            data.writeLong(block.getMinerId());
+        }
+        for (Block block : chunk) {
+            data.writeByte(block.getQtyOfZeros());
+        }
+        for (Block block : chunk) {
+            data.writeInt(block.getTransactions().size());
+        }
+        for (Block block : chunk) {
+            data.writeUTF(block.getHash());
+        }
+        for (Block block : chunk) {
+            data.writeUTF(block.getPrevBlockHash());
+        }
+        for (Block block : chunk) {
+            data.writeUTF(block.getMerkleRoot());
+        }
+        for (SignedTransaction transaction : transactions) {
+            data.writeInt(accounts.get(transaction.getSender()));
+        }
+        for (SignedTransaction transaction : transactions) {
+            data.writeInt(accounts.get(transaction.getReceiver()));
+        }
+        for (SignedTransaction transaction : transactions) {
+            data.writeInt(transaction.getAmount());
+        }
+        for (SignedTransaction transaction : transactions) {
+            data.writeLong(transaction.getNonce());
+        }
+        for (SignedTransaction transaction : transactions) {
+            data.writeLong(transaction.getKeyId());
+        }
+    }
+
+    private void count(Block block) {
+        blocks++;
+        transactions += block.getTransactions().size();
+        lastHeight = Math.max(lastHeight, block.getId());
+    }
+
+    public long getBlocks() {
+        return blocks;
+    }
+
+    public long getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * @return highest exported height, an interrupted export resumes from the next one
+     */
+    public long getLastHeight() {
+        return lastHeight;
+    }
+}
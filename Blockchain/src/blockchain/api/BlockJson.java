@@ -0,0 +1,56 @@
+package blockchain.api;
+
+import blockchain.model.Block;
+import blockchain.model.SignedTransaction;
+
+import java.util.List;
+
+/**
+ * Hand written JSON of blocks, shared by the query endpoint and the NDJSON export.
+ */
+final class BlockJson {
+    private BlockJson() {
+        // prevent instances
+    }
+
+    /**
+     * Appends the block with its transactions as one JSON object without line breaks.
+     */
+    static StringBuilder appendBlock(StringBuilder json, Block block) {
+        json.append("{\"height\":").append(block.getId())
+                .append(",\"hash\":").append(quote(block.getHash()))
+                .append(",\"previousHash\":").append(quote(block.getPrevBlockHash()))
+                .append(",\"timestamp\":").append(block.getTimeStamp())
+                .append(",\"minerId\":").append(block.getMinerId())
+                .append(",\"zeros\":").append(block.getQtyOfZeros())
+                .append(",\"merkleRoot\":").append(quote(block.getMerkleRoot()))
+                .append(",\"pruned\":").append(block.isPruned())
+                .append(",\"transactions\":[");
+        List<SignedTransaction> transactions = block.getTransactions();
+        for (int i = 0; i < transactions.size(); i++) {
+            SignedTransaction transaction = transactions.get(i);
+            json.append(i > 0 ? "," : "")
+                    .append("{\"hash\":").append(quote(transaction.getHash()))
+                    .append(",\"sender\":").append(quote(transaction.getSender()))
+                    .append(",\"receiver\":").append(quote(transaction.getReceiver()))
+                    .append(",\"amount\":").append(transaction.getAmount())
+                    .append(",\"nonce\":").append(transaction.getNonce()).append('}');
+        }
+        return json.append("]}");
+    }
+
+    static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,137 @@
+package blockchain.api;
+
+import blockchain.model.Block;
+import blockchain.model.BlockchainFacade;
+
+import java.util.*;
+
+/**
+ * Read-only queries for explorers and dashboards. Answers come from immutable views built from the
+ * snapshots the blockchain publishes, so a query never waits for the commit thread or the miners.
+ * The chain view is dropped on every added block, the ledger view whenever the ledger snapshot changes.
+ * Both are rebuilt lazily by the next query that needs them.
+ */
+public class ChainQueryService {
+    private final BlockchainFacade blockchain;
+    private volatile ChainView chainView;
+    private volatile LedgerView ledgerView;
+
+    public ChainQueryService(BlockchainFacade blockchain) {
+        this.blockchain = blockchain;
+        blockchain.addBlockListener(block -> chainView = null);
+    }
+
+    /**
+     * @param height height of the block, the genesis block has height 1
+     */
+    public Optional<Block> getBlock(int height) {
+        List<Block> chain = chainView().chain;
+        return height < 1 || height > chain.size() ? Optional.empty() : Optional.of(chain.get(height - 1));
+    }
+
+    public Optional<Block> getBlock(String hash) {
+        return Optional.ofNullable(chainView().byHash().get(hash));
+    }
+
+    /**
+     * @return consecutive main chain blocks from the given height, fewer if the chain ends before
+     */
+    public List<Block> getBlocks(int fromHeight, int count) {
+        List<Block> chain = chainView().chain;
+        int from = Math.max(0, fromHeight - 1);
+        if (from >= chain.size() || count <= 0) {
+            return List.of();
+        }
+        return chain.subList(from, (int) Math.min(chain.size(), (long) from + count));
+    }
+
+    public int getHeight() {
+        return chainView().chain.size();
+    }
+
+    /**
+     * @return balance including the pending transactions, empty for an unknown account
+     */
+    public OptionalInt getBalance(String account) {
+        Integer balance = ledgerView().ledger.get(account);
+        return balance == null ? OptionalInt.empty() : OptionalInt.of(balance);
+    }
+
+    /**
+     * @return the accounts with the highest balances, highest first, ties by name
+     */
+    public List<Map.Entry<String, Integer>> getTopBalances(int count) {
+        List<Map.Entry<String, Integer>> ranking = ledgerView().ranking();
+        return ranking.subList(0, Math.max(0, Math.min(count, ranking.size())));
+    }
+
+    private ChainView chainView() {
+        ChainView view = chainView;
+        List<Block> chain = blockchain.getMainChain();
+        if (view == null || view.chain != chain) {
+            view = new ChainView(chain);
+            chainView = view;
+        }
+        return view;
+    }
+
+    private LedgerView ledgerView() {
+        LedgerView view = ledgerView;
+        Map<String, Integer> ledger = blockchain.getLedger();
+        if (view == null || view.ledger != ledger) {
+            view = new LedgerView(ledger);
+            ledgerView = view;
+        }
+        return view;
+    }
+
+    /**
+     * Main chain snapshot with a hash index built on first use.
+     */
+    private static final class ChainView {
+        private final List<Block> chain;
+        private volatile Map<String, Block> byHash;
+
+        private ChainView(List<Block> chain) {
+            this.chain = chain;
+        }
+
+        private Map<String, Block> byHash() {
+            Map<String, Block> index = byHash;
+            if (index == null) {
+                index = new HashMap<>(2 * chain.size());
+                for (Block block : chain) {
+                    index.put(block.getHash(), block);
+                }
+                index = Collections.unmodifiableMap(index);
+                byHash = index;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Ledger snapshot with the balance ranking sorted on first use.
+     */
+    private static final class LedgerView {
+        private final Map<String, Integer> ledger;
+        private volatile List<Map.Entry<String, Integer>> ranking;
+
+        private LedgerView(Map<String, Integer> ledger) {
+            this.ledger = ledger;
+        }
+
+        private List<Map.Entry<String, Integer>> ranking() {
+            List<Map.Entry<String, Integer>> sorted = ranking;
+            if (sorted == null) {
+                sorted = ledger.entrySet().stream()
+                        .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                                .thenComparing(Map.Entry.comparingByKey()))
+                        .map(entry -> Map.entry(entry.getKey(), entry.getValue()))
+                        .toList();
+                ranking = sorted;
+            }
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package blockchain.api;
+
+import blockchain.model.Block;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static blockchain.api.BlockJson.appendBlock;
+import static blockchain.api.BlockJson.quote;
+import static blockchain.config.BlockchainConfig.QUERY_MAX_BLOCKS;
+import static blockchain.config.BlockchainConfig.QUERY_THREADS;
+
+/**
+ * JSON endpoint of the ChainQueryService on localhost, served by the JDK HttpServer on a few daemon threads:
+ * GET /tip                          height and hash of the chain head
+ * GET /blocks/12                    block at height 12
+ * GET /blocks/hash/00ab...          block with the hash
+ * GET /blocks?from=10&count=5       consecutive blocks, at most QUERY_MAX_BLOCKS
+ * GET /ledger/Peter                 balance of the account
+ * GET /ledger/top?count=10          accounts with the highest balances
+ */
+public class QueryHttpServer implements Closeable {
+    private final ChainQueryService queries;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public QueryHttpServer(ChainQueryService queries, int port) throws IOException {
+        this.queries = queries;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(QUERY_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "query-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/tip", exchange -> respond(exchange, this::tip));
+        server.createContext("/blocks", exchange -> respond(exchange, this::blocks));
+        server.createContext("/ledger", exchange -> respond(exchange, this::ledger));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private String tip(URI uri) {
+        int height = queries.getHeight();
+        String hash = queries.getBlock(height).map(Block::getHash).orElse("0");
+        return "{\"height\":" + height + ",\"hash\":" + quote(hash) + "}";
+    }
+
+    private String blocks(URI uri) {
+        String[] path = path(uri);
+        if (path.length == 1) {
+            Map<String, String> query = query(uri);
+            int from = Integer.parseInt(query.getOrDefault("from", "1"));
+            int count = Math.min(QUERY_MAX_BLOCKS, Integer.parseInt(query.getOrDefault("count", "10")));
+            StringBuilder json = new StringBuilder("[");
+            for (Block block : queries.getBlocks(from, count)) {
+                appendBlock(json.length() > 1 ? json.append(',') : json, block);
+            }
+            return json.append(']').toString();
+        }
+        if (path.length == 3 && path[1].equals("hash")) {
+            return queries.getBlock(path[2]).map(block -> appendBlock(new StringBuilder(), block).toString())
+                    .orElse(null);
+        }
+        if (path.length == 2) {
+            return queries.getBlock(Integer.parseInt(path[1]))
+                    .map(block -> appendBlock(new StringBuilder(), block).toString())
+                    .orElse(null);
+        }
+        return null;
+    }
+
+    private String ledger(URI uri) {
+        String[] path = path(uri);
+        if (path.length != 2) {
+            return null;
+        }
+        if (path[1].equals("top")) {
+            int count = Integer.parseInt(query(uri).getOrDefault("count", "10"));
+            StringBuilder json = new StringBuilder("[");
+            for (Map.Entry<String, Integer> entry : queries.getTopBalances(count)) {
+                (json.length() > 1 ? json.append(',') : json)
+                        .append("{\"account\":").append(quote(entry.getKey()))
+                        .append(",\"balance\":").append(entry.getValue()).append('}');
+            }
+            return json.append(']').toString();
+        }
+        String account = path[1];
+        return queries.getBalance(account).stream()
+                .mapToObj(balance -> "{\"account\":" + quote(account) + ",\"balance\":" + balance + "}")
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Sends the JSON, 404 if the handler found nothing, 400 for malformed numbers, 405 for other methods than GET.
+     */
+    private static void respond(HttpExchange exchange, Handler handler) throws IOException {
+        int status;
+        String body;
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                status = 405;
+                body = "{\"error\":\"only GET is supported\"}";
+            } else {
+                body = handler.handle(exchange.getRequestURI());
+                status = body == null ? 404 : 200;
+                if (body == null) {
+                    body = "{\"error\":\"not found\"}";
+                }
+            }
+        } catch (NumberFormatException e) {
+            status = 400;
+            body = "{\"error\":" + quote("invalid number: " + e.getMessage()) + "}";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String[] path(URI uri) {
+        return uri.getPath().replaceAll("^/+|/+$", "").split("/+");
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> parameters = new HashMap<>();
+        if (uri.getQuery() != null) {
+            for (String parameter : uri.getQuery().split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator > 0) {
+                    parameters.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private interface Handler {
+        /**
+         * @return the JSON response, null if nothing was found
+         */
+        String handle(URI uri);
+    }
+}
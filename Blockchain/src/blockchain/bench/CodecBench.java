@@ -0,0 +1,99 @@
+package blockchain.bench;
+
+import blockchain.model.Block;
+import blockchain.model.SignedTransaction;
+import blockchain.storage.BinaryCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bytes and encode/decode rates of BinaryCodec against Java serialization, one record per block as the
+ * block store writes them, and for the ledger of the blocks. Java serialization writes the current model
+ * classes, which carry a key fingerprint where the old ones carried the whole public key, so the records
+ * the block store wrote before BinaryCodec were larger still.
+ * Run with: java -cp out blockchain.bench.CodecBench [block store directory | number of blocks]
+ */
+public final class CodecBench {
+    private static final int ROUNDS = 5;
+
+    private CodecBench() {
+        // prevent instances
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Block> blocks = SampleBlocks.load(args.length > 0 ? args[0] : null);
+        Map<String, Integer> ledger = new HashMap<>();
+        for (Block block : blocks) {
+            for (SignedTransaction transaction : block.getTransactions()) {
+                ledger.merge(transaction.getSender(), -transaction.getAmount(), Integer::sum);
+                ledger.merge(transaction.getReceiver(), transaction.getAmount(), Integer::sum);
+            }
+        }
+        System.out.printf("%d blocks, %d accounts%n", blocks.size(), ledger.size());
+
+        System.out.printf("%-13s %14s %16s %16s %14s%n", "codec", "block bytes", "encode blocks/s", "decode blocks/s",
+                "ledger bytes");
+        long binaryBytes = 0;
+        double encodeRate = 0;
+        double decodeRate = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            List<byte[]> records = new ArrayList<>(blocks.size());
+            long start = System.nanoTime();
+            for (Block block : blocks) {
+                records.add(BinaryCodec.encodeBlock(block));
+            }
+            encodeRate = Math.max(encodeRate, blocks.size() * 1e9 / (System.nanoTime() - start));
+            start = System.nanoTime();
+            for (byte[] record : records) {
+                BinaryCodec.decodeBlock(ByteBuffer.wrap(record));
+            }
+            decodeRate = Math.max(decodeRate, blocks.size() * 1e9 / (System.nanoTime() - start));
+            binaryBytes = records.stream().mapToLong(record -> record.length).sum();
+        }
+        System.out.printf("%-13s %,14d %16.0f %16.0f %,14d%n", "BinaryCodec", binaryBytes, encodeRate, decodeRate,
+                BinaryCodec.encodeLedger(ledger).length);
+
+        long serializedBytes = 0;
+        encodeRate = 0;
+        decodeRate = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            List<byte[]> records = new ArrayList<>(blocks.size());
+            long start = System.nanoTime();
+            for (Block block : blocks) {
+                records.add(serialize(block));
+            }
+            encodeRate = Math.max(encodeRate, blocks.size() * 1e9 / (System.nanoTime() - start));
+            start = System.nanoTime();
+            for (byte[] record : records) {
+                deserialize(record);
+            }
+            decodeRate = Math.max(decodeRate, blocks.size() * 1e9 / (System.nanoTime() - start));
+            serializedBytes = records.stream().mapToLong(record -> record.length).sum();
+        }
+        System.out.printf("%-13s %,14d %16.0f %16.0f %,14d%n", "Serializable", serializedBytes, encodeRate, decodeRate,
+                serialize(new HashMap<>(ledger)).length);
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] record) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package blockchain.bench;
+
+import blockchain.model.Block;
+import blockchain.storage.BinaryCodec;
+import blockchain.storage.BlockStore;
+import blockchain.storage.SegmentCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static blockchain.config.BlockchainConfig.BLOCKS_PER_SEGMENT;
+
+/**
+ * Size against throughput of the block store codecs. Per record, it measures stored bytes and the encode
+ * and decode throughput of every SegmentCodec. Per store, it measures bytes on disk and the append and
+ * load rates of an uncompressed and a compressed BlockStore, for the blocks of SampleBlocks.
+ * Random signatures don't compress, so generated blocks show the least a codec saves.
+ * Run with: java -cp out blockchain.bench.CompressionBench [block store directory | number of blocks]
+ */
+public final class CompressionBench {
+    private static final int ROUNDS = 5;
+
+    private CompressionBench() {
+        // prevent instances
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Block> blocks = SampleBlocks.load(args.length > 0 ? args[0] : null);
+        List<byte[]> records = new ArrayList<>(blocks.size());
+        long rawBytes = 0;
+        for (Block block : blocks) {
+            byte[] record = BinaryCodec.encodeBlock(block);
+            records.add(record);
+            rawBytes += record.length;
+        }
+        System.out.printf("%d blocks, %,d bytes encoded%n", blocks.size(), rawBytes);
+
+        System.out.printf("%-10s %14s %7s %12s %12s%n", "codec", "stored bytes", "ratio", "encode MB/s", "decode MB/s");
+        for (SegmentCodec codec : SegmentCodec.values()) {
+            long storedBytes = 0;
+            double encodeRate = 0;
+            double decodeRate = 0;
+            // the best of some rounds, the first ones warm up
+            for (int round = 0; round < ROUNDS; round++) {
+                List<byte[]> stored = new ArrayList<>(records.size());
+                long start = System.nanoTime();
+                for (byte[] record : records) {
+                    stored.add(codec.encode(record));
+                }
+                encodeRate = Math.max(encodeRate, rawBytes * 1e3 / (System.nanoTime() - start));
+                start = System.nanoTime();
+                long decoded = 0;
+                for (byte[] record : stored) {
+                    decoded += codec.decode(ByteBuffer.wrap(record)).remaining();
+                }
+                decodeRate = Math.max(decodeRate, decoded * 1e3 / (System.nanoTime() - start));
+                storedBytes = stored.stream().mapToLong(record -> record.length).sum();
+            }
+            System.out.printf("%-10s %,14d %6.2fx %12.1f %12.1f%n", codec, storedBytes,
+                    (double) rawBytes / storedBytes, encodeRate, decodeRate);
+        }
+
+        System.out.printf("%-10s %14s %16s %16s%n", "store", "bytes on disk", "append blocks/s", "load blocks/s");
+        for (boolean compressed : new boolean[] {false, true}) {
+            Path directory = Files.createTempDirectory("compression-bench");
+            try {
+                BlockStore store = new BlockStore(directory, BLOCKS_PER_SEGMENT, compressed);
+                long start = System.nanoTime();
+                for (Block block : blocks) {
+                    store.append(block);
+                }
+                store.close();
+                double appendRate = blocks.size() * 1e9 / (System.nanoTime() - start);
+                double loadRate = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    start = System.nanoTime();
+                    int loaded = new BlockStore(directory, BLOCKS_PER_SEGMENT, compressed).loadAll().size();
+                    loadRate = Math.max(loadRate, loaded * 1e9 / (System.nanoTime() - start));
+                }
+                System.out.printf("%-10s %,14d %16.0f %16.0f%n", compressed ? "compressed" : "plain",
+                        size(directory), appendRate, loadRate);
+            } finally {
+                delete(directory);
+            }
+        }
+    }
+
+    private static long size(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            long size = 0;
+            for (Path file : (Iterable<Path>) files::iterator) {
+                size += Files.isRegularFile(file) ? Files.size(file) : 0;
+            }
+            return size;
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package blockchain.bench;
+
+import blockchain.controller.MiningStatistics;
+import blockchain.controller.WorkerPool;
+import blockchain.model.Block;
+import blockchain.model.BlockHeader;
+import blockchain.model.Blockchain;
+import blockchain.model.BlockchainFacade;
+import blockchain.model.BlockTemplate;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Aggregate hash rate of the miners depending on where they count their hashes:
+ * local - in an object only the miner sees, the baseline,
+ * padded - in the padded slots of MiningStatistics, as the node does,
+ * adjacent - in neighbouring slots of a plain array, which share cache lines,
+ * shared - in one AtomicLong.
+ * The miners mine blocks of a fixed difficulty on top of an in-memory chain without adding them.
+ * Run with: java -cp out blockchain.bench.MiningBench [threads] [difficulty] [seconds per mode]
+ */
+public final class MiningBench {
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private MiningBench() {
+        // prevent instances
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int difficulty = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long nanos = (args.length > 2 ? Integer.parseInt(args[2]) : 10) * 1_000_000_000L;
+
+        BlockchainFacade blockchain = new BlockchainFacade(new Blockchain());
+        blockchain.addBlock(blockchain.createGenesisBlock());
+        raiseDifficulty(blockchain, difficulty);
+        System.out.printf("%d miners, difficulty %d, %d s per mode%n", threads, difficulty, nanos / 1_000_000_000L);
+
+        ExecutorService miners = WorkerPool.create("miner", threads, List.of());
+        try {
+            mine(miners, blockchain, threads, nanos / 2, local(threads));
+            double baseline = 0;
+            for (Mode mode : List.of(local(threads), padded(threads), adjacent(threads), shared())) {
+                double rate = mine(miners, blockchain, threads, nanos, mode);
+                if (baseline == 0) {
+                    baseline = rate;
+                }
+                System.out.printf("%-9s %,14.0f hashes/s %6.1f %% of local%n", mode.name, rate, 100 * rate / baseline);
+            }
+        } finally {
+            miners.shutdownNow();
+            blockchain.close();
+        }
+    }
+
+    /**
+     * Adds blocks claiming one more zero each than they were mined with, which a header may, until the next
+     * block has the difficulty. The configured creation times may keep the difficulty from growing by itself.
+     */
+    private static void raiseDifficulty(BlockchainFacade blockchain, int difficulty) {
+        while (blockchain.getChainTip().getQtyOfZeros() < difficulty) {
+            Block mined = blockchain.createBlock(BlockTemplate.EMPTY);
+            BlockHeader header = mined.getHeader();
+            blockchain.addBlock(Block.restore(new BlockHeader(header.getId(), header.getTimeStamp(),
+                    header.getPrevBlockHash(), header.getMerkleRoot(), header.getMagicNumber(), header.getHash(),
+                    header.getStartQtyOfZeros(), header.getStartQtyOfZeros() + 1, header.getMinerId(),
+                    header.getGeneratedHashTime()), mined.getTransactions()));
+        }
+    }
+
+    /**
+     * @return hashes per second of all miners together
+     */
+    private static double mine(ExecutorService miners, BlockchainFacade blockchain, int threads, long nanos,
+                               Mode mode) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + nanos;
+        Callable<Void> miner = () -> {
+            LongConsumer counter = mode.counters.apply(WorkerPool.currentWorker());
+            while (System.nanoTime() < deadline) {
+                blockchain.createBlock(BlockTemplate.EMPTY, counter);
+            }
+            return null;
+        };
+        miners.invokeAll(Collections.nCopies(threads, miner));
+        return mode.hashes.getAsLong() * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static Mode local(int threads) {
+        LocalCounter[] counters = new LocalCounter[threads];
+        return new Mode("local", worker -> {
+            // allocated by the miner, so it lands in the miner's own allocation buffer
+            if (counters[worker] == null) {
+                counters[worker] = new LocalCounter();
+            }
+            return counters[worker];
+        }, () -> {
+            long hashes = 0;
+            for (LocalCounter counter : counters) {
+                hashes += counter == null ? 0 : counter.hashes;
+            }
+            return hashes;
+        });
+    }
+
+    private static Mode padded(int threads) {
+        MiningStatistics statistics = new MiningStatistics(threads);
+        return new Mode("padded", statistics::hashCounter, statistics::getHashes);
+    }
+
+    private static Mode adjacent(int threads) {
+        long[] slots = new long[threads];
+        return new Mode("adjacent", worker -> hashes -> SLOTS.setOpaque(slots, worker,
+                (long) SLOTS.getOpaque(slots, worker) + hashes), () -> {
+            long hashes = 0;
+            for (int worker = 0; worker < threads; worker++) {
+                hashes += (long) SLOTS.getOpaque(slots, worker);
+            }
+            return hashes;
+        });
+    }
+
+    private static Mode shared() {
+        AtomicLong hashes = new AtomicLong();
+        return new Mode("shared", worker -> hashes::addAndGet, hashes::get);
+    }
+
+    private static final class Mode {
+        private final String name;
+        /** counter of the miner with the given WorkerPool index */
+        private final IntFunction<LongConsumer> counters;
+        private final LongSupplier hashes;
+
+        private Mode(String name, IntFunction<LongConsumer> counters, LongSupplier hashes) {
+            this.name = name;
+            this.counters = counters;
+            this.hashes = hashes;
+        }
+    }
+
+    private static final class LocalCounter implements LongConsumer {
+        private long hashes;
+
+        @Override
+        public void accept(long value) {
+            hashes += value;
+        }
+    }
+}
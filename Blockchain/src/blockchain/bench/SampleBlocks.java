@@ -0,0 +1,84 @@
+package blockchain.bench;
+
+import blockchain.model.Block;
+import blockchain.model.BlockHeader;
+import blockchain.model.BlockTemplate;
+import blockchain.model.SignedTransaction;
+import blockchain.security.HashUtil;
+import blockchain.security.PublicKeyRegistry;
+import blockchain.storage.BlockStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static blockchain.config.BlockchainConfig.BLOCKS_PER_SEGMENT;
+import static blockchain.config.BlockchainConfig.CLIENTS;
+import static blockchain.config.BlockchainConfig.MINER_ACCOUNT;
+
+/**
+ * Blocks for the storage benchmarks, read from a block store or generated with transactions between the
+ * clients and miners signed with random 2048 bit signatures.
+ */
+final class SampleBlocks {
+    private static final int DEFAULT_COUNT = 5000;
+    private static final int SIGNATURE_BYTES = 256;
+
+    private SampleBlocks() {
+        // prevent instances
+    }
+
+    /**
+     * @param argument block store directory, number of blocks to generate or null for the default number
+     */
+    static List<Block> load(String argument) throws IOException {
+        if (argument != null && Files.isDirectory(Path.of(argument))) {
+            return new BlockStore(Path.of(argument), BLOCKS_PER_SEGMENT).loadAll();
+        }
+        return generate(argument != null ? Integer.parseInt(argument) : DEFAULT_COUNT, new Random(1));
+    }
+
+    /**
+     * @return chain of blocks with up to 20 transactions each among the clients and the miner accounts of
+     *         8 nodes, the hashes aren't valid proofs of work and the key fingerprints are random
+     */
+    private static List<Block> generate(int count, Random random) {
+        List<Long> keyIds = new ArrayList<>();
+        List<String> accounts = new ArrayList<>();
+        for (String client : CLIENTS) {
+            keyIds.add(random.nextLong());
+            accounts.add(PublicKeyRegistry.account(client, keyIds.get(keyIds.size() - 1)));
+        }
+        for (int i = 1; i <= 8; i++) {
+            keyIds.add(random.nextLong());
+            accounts.add(PublicKeyRegistry.account(MINER_ACCOUNT, keyIds.get(keyIds.size() - 1)));
+        }
+        List<Block> blocks = new ArrayList<>(count);
+        String prevBlockHash = "0";
+        for (long id = 1; id <= count; id++) {
+            List<SignedTransaction> transactions = new ArrayList<>();
+            int size = random.nextInt(21);
+            for (int i = 0; i < size; i++) {
+                int sender = random.nextInt(accounts.size());
+                int receiver = (sender + 1 + random.nextInt(accounts.size() - 1)) % accounts.size();
+                SignedTransaction transaction = new SignedTransaction(accounts.get(sender), 1 + random.nextInt(100),
+                        accounts.get(receiver), keyIds.get(sender), random.nextLong());
+                byte[] signed = new byte[SIGNATURE_BYTES];
+                random.nextBytes(signed);
+                transaction.setSigned(signed);
+                transactions.add(transaction);
+            }
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            String hex = HashUtil.toHex(hash);
+            blocks.add(Block.restore(new BlockHeader(id, 1_700_000_000_000L + id * 1000, prevBlockHash,
+                    new BlockTemplate(transactions).getMerkleRoot(), random.nextInt(Integer.MAX_VALUE), hex, 0, 0,
+                    keyIds.get(CLIENTS.size() + random.nextInt(8)), 0), transactions));
+            prevBlockHash = hex;
+        }
+        return blocks;
+    }
+}
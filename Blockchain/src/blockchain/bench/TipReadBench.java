@@ -0,0 +1,203 @@
+package blockchain.bench;
+
+import blockchain.model.Blockchain;
+import blockchain.model.BlockchainFacade;
+import blockchain.model.BlockTemplate;
+import blockchain.model.ChainTip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Reads per second of the chain tip (height, hash and difficulty) by a growing number of reader threads,
+ * while a writer adds a block every millisecond:
+ * snapshot - the ChainTip the commit thread publishes, as the node reads it,
+ * monitor - the three fields behind a synchronized block, as before the ChainTip,
+ * read-lock - the fields behind a ReentrantReadWriteLock,
+ * optimistic - the fields behind StampedLock optimistic reads.
+ * Run with: java -cp out blockchain.bench.TipReadBench [max readers] [seconds per run]
+ */
+public final class TipReadBench {
+    /** reads between two looks at the stop flag */
+    private static final int BATCH = 1024;
+
+    private TipReadBench() {
+        // prevent instances
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxReaders = args.length > 0 ? Integer.parseInt(args[0]) : 2 * Runtime.getRuntime().availableProcessors();
+        long millis = (args.length > 1 ? Integer.parseInt(args[1]) : 3) * 1000L;
+
+        BlockchainFacade blockchain = new BlockchainFacade(new Blockchain());
+        blockchain.addBlock(blockchain.createGenesisBlock());
+        MonitorTip monitor = new MonitorTip();
+        ReadLockTip readLock = new ReadLockTip();
+        OptimisticTip optimistic = new OptimisticTip();
+        List<TipReader> readers = List.of(
+                () -> {
+                    ChainTip tip = blockchain.getChainTip();
+                    return tip.getHeight() + tip.getHash().length() + tip.getQtyOfZeros();
+                }, monitor::read, readLock::read, optimistic::read);
+
+        Thread writer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                blockchain.addBlock(blockchain.createBlock(BlockTemplate.EMPTY));
+                ChainTip tip = blockchain.getChainTip();
+                monitor.write(tip.getHeight(), tip.getHash(), tip.getQtyOfZeros());
+                readLock.write(tip.getHeight(), tip.getHash(), tip.getQtyOfZeros());
+                optimistic.write(tip.getHeight(), tip.getHash(), tip.getQtyOfZeros());
+                LockSupport.parkNanos(1_000_000);
+            }
+        }, "tip-writer");
+        writer.start();
+
+        ExecutorService pool = Executors.newFixedThreadPool(maxReaders);
+        try {
+            System.out.printf("%7s %14s %14s %14s %14s   million reads/s%n", "readers", "snapshot", "monitor",
+                    "read-lock", "optimistic");
+            // the first round warms up
+            read(pool, 1, millis / 2, readers.get(0));
+            for (int threads = 1; threads <= maxReaders; threads *= 2) {
+                StringBuilder line = new StringBuilder(String.format("%7d", threads));
+                for (TipReader reader : readers) {
+                    line.append(String.format(" %14.1f", read(pool, threads, millis, reader) / 1e6));
+                }
+                System.out.println(line);
+            }
+        } finally {
+            pool.shutdownNow();
+            writer.interrupt();
+            writer.join();
+            blockchain.close();
+        }
+    }
+
+    /**
+     * @return reads per second of all threads together
+     */
+    private static double read(ExecutorService pool, int threads, long millis, TipReader reader) throws Exception {
+        Stop stop = new Stop();
+        Callable<Long> task = () -> {
+            long reads = 0;
+            long sink = 0;
+            while (!stop.stopped) {
+                for (int i = 0; i < BATCH; i++) {
+                    sink += reader.read();
+                }
+                reads += BATCH;
+            }
+            // keeps the reads from being optimized away
+            return sink == 42 ? reads + 1 : reads;
+        };
+        List<Future<Long>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(task));
+        }
+        Thread.sleep(millis);
+        stop.stopped = true;
+        long reads = 0;
+        for (Future<Long> result : results) {
+            reads += result.get();
+        }
+        return reads * 1e9 / (System.nanoTime() - start);
+    }
+
+    private interface TipReader {
+        /**
+         * @return a value depending on height, hash and difficulty of the tip
+         */
+        long read();
+    }
+
+    private static final class Stop {
+        private volatile boolean stopped;
+    }
+
+    private static final class MonitorTip {
+        private int height;
+        private String hash = "0";
+        private int qtyOfZeros;
+
+        private synchronized void write(int height, String hash, int qtyOfZeros) {
+            this.height = height;
+            this.hash = hash;
+            this.qtyOfZeros = qtyOfZeros;
+        }
+
+        private synchronized long read() {
+            return height + hash.length() + qtyOfZeros;
+        }
+    }
+
+    private static final class ReadLockTip {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private int height;
+        private String hash = "0";
+        private int qtyOfZeros;
+
+        private void write(int height, String hash, int qtyOfZeros) {
+            lock.writeLock().lock();
+            try {
+                this.height = height;
+                this.hash = hash;
+                this.qtyOfZeros = qtyOfZeros;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private long read() {
+            lock.readLock().lock();
+            try {
+                return height + hash.length() + qtyOfZeros;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    private static final class OptimisticTip {
+        private final StampedLock lock = new StampedLock();
+        private int height;
+        private String hash = "0";
+        private int qtyOfZeros;
+
+        private void write(int height, String hash, int qtyOfZeros) {
+            long stamp = lock.writeLock();
+            try {
+                this.height = height;
+                this.hash = hash;
+                this.qtyOfZeros = qtyOfZeros;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private long read() {
+            long stamp = lock.tryOptimisticRead();
+            int readHeight = height;
+            String readHash = hash;
+            int readQtyOfZeros = qtyOfZeros;
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    readHeight = height;
+                    readHash = hash;
+                    readQtyOfZeros = qtyOfZeros;
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return readHeight + readHash.length() + readQtyOfZeros;
+        }
+    }
+}
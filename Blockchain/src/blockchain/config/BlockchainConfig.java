@@ -11,7 +11,21 @@ public class BlockchainConfig {
 
     public static final int BLOCK_REWARD = 100;
 
-    public static final String SERIALIZE_PATH = "./blockchain.txt";
+    public static final String BLOCK_STORE_PATH = "./blockstore";
+    public static final int BLOCKS_PER_SEGMENT = 1000;
+    // new block store segments are Deflate compressed if enabled, existing segments keep their format,
+    // off by default as every append and load pays CPU for the disk space saved
+    public static final boolean BLOCK_STORE_COMPRESSION = false;
+    public static final String MEMPOOL_PATH = "./mempool.dat";
+    public static final String ACCOUNT_INDEX_FILE = "account-index.dat";
+    public static final String PUBLIC_KEYS_FILE = "public-keys.dat";
+    public static final int ACCOUNT_INDEX_REBUILD_BLOCKS = 1000;
+    public static final int CHECKPOINT_INTERVAL_BLOCKS = 100;
+    public static final int CHECKPOINTS_KEPT = 2;
+    // mutations the commit thread runs at most before it publishes the ledger and answers their callers
+    public static final int COMMIT_BATCH_COMMANDS = 256;
+    public static final String ARCHIVE_DIRECTORY = "archive";
+    public static final int SHUTDOWN_TIMEOUT_MILLISECONDS = 10_000;
     public static final String KEY_PAIRS_PATH_PREFIX = "../";
     public static final String PUBLIC_KEY_SUFFIX = "_rsa.pub";
     public static final String PRIVATE_KEY_SUFFIX = "_rsa";
@@ -24,8 +38,53 @@ public class BlockchainConfig {
     public static final int BLOCK_MIN_CREATION_SECONDS = 0;
     public static final int BLOCK_MAX_CREATION_SECONDS = 1;
     public static final int MAX_CLIENT_PAUSE_MILLISECONDS = 700;
+    // transfers a client signs together as one TransactionBatch, 1 signs every transaction on its own
+    public static final int CLIENT_BATCH_SIZE = 8;
+
+    // a block is started as soon as this many transactions are pending...
+    public static final int MIN_BLOCK_TRANSACTIONS = 5;
+    // ...or when the oldest pending transaction waited that long
+    public static final int MAX_BLOCK_WAIT_MILLISECONDS = 200;
+    // limits of a block's transactions and their encoded bytes, larger blocks are rejected,
+    // pending transactions beyond the limits wait for the next block
+    public static final int MAX_BLOCK_TRANSACTIONS = 1000;
+    public static final int MAX_BLOCK_BYTES = 1024 * 1024;
+    // pending transactions not taken into a block within this time or this many blocks are evicted,
+    // the sweeper looks for them in this interval
+    public static final long MEMPOOL_EXPIRY_MILLISECONDS = 30 * 60 * 1000;
+    public static final int MEMPOOL_EXPIRY_BLOCKS = 1000;
+    public static final long MEMPOOL_SWEEP_MILLISECONDS = 1000;
+    // offered transaction hashes remembered per generation of the duplicate guard, two generations are kept
+    public static final int DUPLICATE_GUARD_CAPACITY = 250_000;
+    // batch signatures remembered as verified, so the other transactions of a relayed batch skip the RSA check
+    public static final int VERIFIED_BATCHES_CAPACITY = 10_000;
+
+    public static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    public static final int SEEN_HASHES_CAPACITY = 100_000;
+    public static final int RELAYED_BLOCKS_CAPACITY = 64;
+    public static final int SYNC_HEADER_BATCH = 2000;
+    public static final int SYNC_VERIFY_CHUNK = 250;
+    public static final int SYNC_BODY_BATCH = 100;
+    public static final int SYNC_PARALLEL_REQUESTS = 8;
+    public static final int SYNC_REQUEST_TIMEOUT_MILLISECONDS = 10_000;
+    public static final int SYNC_PEER_WAIT_MILLISECONDS = 3_000;
 
     public static final List<String> CLIENTS = List.of("Peter", "Mary", "Caspar", "Balthazar");
     public static final int CLIENT_COUNT = CLIENTS.size();
+    // name of the key the miners of a node are rewarded with, the reward account is derived from it
+    public static final String MINER_ACCOUNT = "miner";
     public static final int MINER_COUNT = Runtime.getRuntime().availableProcessors() - CLIENT_COUNT;
+    // default thread counts of the worker pools, see NodeOptions to change them per node
+    public static final int MINER_THREADS = Math.max(1, MINER_COUNT);
+    public static final int CLIENT_THREADS = CLIENT_COUNT;
+    // miners count their hashes in padded per-thread slots, printed on shutdown of a continuous node
+    public static final boolean MINING_STATISTICS = true;
+    // simulations start their clock at 2024-01-01T00:00:00Z and use this seed unless --seed is given
+    public static final long SIMULATION_START_MILLIS = 1_704_067_200_000L;
+    public static final long SIMULATION_SEED = 42;
+    // threads of the query endpoint and the most blocks one range query returns
+    public static final int QUERY_THREADS = 2;
+    public static final int QUERY_MAX_BLOCKS = 100;
+    // blocks per column chunk of a binary export, bounds the memory of the export
+    public static final int EXPORT_CHUNK_BLOCKS = 1024;
 }
@@ -0,0 +1,55 @@
+package blockchain.controller;
+
+import blockchain.model.BlockchainFacade;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the next block is started, so the controller doesn't have to poll the mempool.
+ * A block is started once at least minTransactions are pending, or once the oldest pending
+ * transaction waited maxWaitMillis. While the mempool is empty the controller thread sleeps and
+ * is woken up by the offering client thread.
+ */
+public class BlockScheduler {
+    private final BlockchainFacade blockchain;
+    private final int minTransactions;
+    private final long maxWaitNanos;
+    private final Object monitor = new Object();
+
+    public BlockScheduler(BlockchainFacade blockchain, int minTransactions, long maxWaitMillis) {
+        this.blockchain = blockchain;
+        this.minTransactions = Math.max(1, minTransactions);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        blockchain.setArrivalListener(this::onArrival);
+    }
+
+    /**
+     * Blocks the calling thread until a batch of transactions is ready to be mined.
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public void awaitBatch() throws InterruptedException {
+        synchronized (monitor) {
+            while (blockchain.getPendingCount() == 0) {
+                monitor.wait();
+            }
+            long deadline = blockchain.getOldestPendingNanos() + maxWaitNanos;
+            long remaining;
+            while (blockchain.getPendingCount() < minTransactions
+                    && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+            }
+        }
+    }
+
+    /**
+     * Only the first arrival and the one completing the batch can change the outcome of
+     * awaitBatch(), all others skip the monitor.
+     */
+    private void onArrival(int pending) {
+        if (pending == 1 || pending == minTransactions) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package blockchain.controller;
+
+import blockchain.model.BlockTemplate;
+import blockchain.model.BlockchainFacade;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static blockchain.config.BlockchainConfig.SHUTDOWN_TIMEOUT_MILLISECONDS;
+
+/**
+ * Pipelines block body preparation with mining. While the miners work on the current block, the
+ * producer thread waits for the next batch of transactions (BlockScheduler), takes them out of the
+ * mempool and computes the Merkle root, so the miners can start on the next block right after
+ * the current one is committed.
+ */
+public class BlockTemplateProducer {
+    private final BlockchainFacade blockchain;
+    private final BlockScheduler scheduler;
+    private final ExecutorService producer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "block-template-producer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<BlockTemplate> next;
+
+    public BlockTemplateProducer(BlockchainFacade blockchain, BlockScheduler scheduler) {
+        this.blockchain = blockchain;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts building the next template in the background, does nothing if one is already in progress.
+     */
+    public void prepareNext() {
+        if (next == null) {
+            next = producer.submit(() -> {
+                scheduler.awaitBatch();
+                return blockchain.takeTemplate();
+            });
+        }
+    }
+
+    /**
+     * @return the prepared template, waits only if the batch isn't complete yet
+     */
+    public BlockTemplate takeNext() throws InterruptedException, ExecutionException {
+        prepareNext();
+        try {
+            return next.get();
+        } finally {
+            next = null;
+        }
+    }
+
+    /**
+     * Stops the producer thread and waits for it to end. A template it was taking out of the mempool while
+     * being stopped is finished and returned, so its transactions aren't lost. The caller may be interrupted
+     * already, its interrupt is kept.
+     * @return the template that was prepared but not taken, null if there is none
+     */
+    public BlockTemplate shutdown() {
+        Future<BlockTemplate> prepared = next;
+        next = null;
+        producer.shutdownNow();
+        boolean interrupted = Thread.interrupted();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_TIMEOUT_MILLISECONDS);
+        try {
+            while (true) {
+                try {
+                    if (!producer.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                        System.err.println("cannot stop the block template producer in time");
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            // a task that never started took nothing and stays undone
+            if (prepared == null || !prepared.isDone() || prepared.isCancelled()) {
+                return null;
+            }
+            return prepared.get();
+        } catch (InterruptedException | ExecutionException e) {
+            // the producer was interrupted while waiting for a batch, nothing was taken
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
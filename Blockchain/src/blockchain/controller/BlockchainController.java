@@ -1,79 +1,224 @@
 package blockchain.controller;
+import blockchain.api.ChainQueryService;
+import blockchain.api.QueryHttpServer;
+import blockchain.exceptions.BlockChainSecurityException;
 import blockchain.exceptions.InvalidBlockChainException;
 import blockchain.model.Block;
+import blockchain.model.BlockTemplate;
 import blockchain.model.Blockchain;
 import blockchain.model.BlockchainFacade;
-import blockchain.security.RSAGenerator;
+import blockchain.network.HeadersFirstSync;
+import blockchain.network.PeerNode;
+import blockchain.security.FileKeyStore;
+import blockchain.security.PublicKeyRegistry;
+import blockchain.storage.BlockStore;
 
 import java.io.IOException;
-import java.security.KeyPair;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static blockchain.config.BlockchainConfig.*;
 
 /**
  * Application logic class, that contains the run() method started by Main.
- * Presently it creates and validates a blockchain of given length.
+ * By default it creates and validates a blockchain of given length. In continuous mode it keeps mining
+ * on top of the stored chain until the process is terminated.
  */
 public class BlockchainController {
+    private final NodeOptions options;
+    private final boolean continuous;
     private BlockchainFacade blockchain;
     private ExecutorService clients;
+    private PeerNode node;
+    private QueryHttpServer queryServer;
+    /** null if MINING_STATISTICS is off */
+    private final MiningStatistics minerStatistics;
+    private volatile boolean stopping;
+
+    public BlockchainController() {
+        this(NodeOptions.parse(new String[0]));
+    }
+
+    /**
+     * @param options continuous mode keeps the stored chain on start, mines without length limit and
+     *                flushes mempool and block store on shutdown. A port joins the node to its peers.
+     */
+    public BlockchainController(NodeOptions options) {
+        this.options = options;
+        this.continuous = options.isContinuous();
+        this.minerStatistics = MINING_STATISTICS ? new MiningStatistics(options.getMinerThreads()) : null;
+    }
 
     /**
      * entry point invoked by Main after creation of this controller.
      */
     public void run() {
-        clients = Executors.newFixedThreadPool(CLIENT_COUNT);
+        clients = WorkerPool.create("client", options.getClientThreads(), options.getClientCpus());
         try {
-            blockchain = new BlockchainFacade(Blockchain.deserialize(SERIALIZE_PATH));
-            blockchain.clear(); // for test reasons
+            BlockStore store = new BlockStore(Path.of(BLOCK_STORE_PATH), BLOCKS_PER_SEGMENT, BLOCK_STORE_COMPRESSION);
+            PublicKeyRegistry keyRegistry = PublicKeyRegistry.open(store.resolve(PUBLIC_KEYS_FILE));
+            blockchain = new BlockchainFacade(Blockchain.open(store), keyRegistry);
+            blockchain.enableExpiry(MEMPOOL_EXPIRY_MILLISECONDS, MEMPOOL_EXPIRY_BLOCKS, MEMPOOL_SWEEP_MILLISECONDS);
+            if (options.getPruneKeepBlocks() > 0) {
+                BlockStore archive = null;
+                if (options.isArchive()) {
+                    archive = new BlockStore(Path.of(BLOCK_STORE_PATH, ARCHIVE_DIRECTORY), BLOCKS_PER_SEGMENT, true);
+                    archive.openForAppend();
+                }
+                blockchain.enablePruning(options.getPruneKeepBlocks(), archive);
+            }
+            if (continuous) {
+                blockchain.restoreMempool(MEMPOOL_PATH);
+                installShutdownHook();
+            } else {
+                blockchain.clear(); // for test reasons
+            }
+            if (options.getQueryPort() > 0) {
+                queryServer = new QueryHttpServer(new ChainQueryService(blockchain), options.getQueryPort());
+                queryServer.start();
+            }
+            if (options.isNetworked()) {
+                startNode();
+            }
             startClients(clients);
             continueGeneration(blockchain.size());
-            blockchain.displayBlockchain();
-            //blockchain.displayLedger();
+            if (!continuous) {
+                stopClients();
+                blockchain.displayBlockchain();
+                //blockchain.displayLedger();
+                blockchain.close();
+            }
         } catch (InvalidBlockChainException exception) {
             errorExit("Invalid blockchain detected: ", exception);
+        } catch (IOException exception) {
+            errorExit("Cannot open block store, peer or query port: ", exception);
+        }
+        clients.shutdownNow();
+        if (!continuous) {
+            stopQueryServer();
+            stopNode();
+        }
+    }
+
+    /**
+     * Starts the peer node and catches up with the connected peers before mining starts.
+     */
+    private void startNode() throws IOException {
+        node = new PeerNode(blockchain, options.getPort());
+        node.start();
+        options.getPeers().forEach(node::connect);
+        if (options.getPeers().isEmpty()) {
+            return;
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            node.awaitPeers(options.getPeers().size(), SYNC_PEER_WAIT_MILLISECONDS);
+            long start = System.currentTimeMillis();
+            int synced = new HeadersFirstSync(blockchain, node.getPeerSources(), workers).run();
+            if (synced > 0) {
+                System.out.println("Synchronized " + synced + " blocks in " + (System.currentTimeMillis() - start) + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | InvalidBlockChainException e) {
+            System.err.println("Synchronization with peers failed, mining on the local chain\n" + e.getMessage());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void stopNode() {
+        if (node == null) {
+            return;
         }
+        System.out.println(node.getStatistics());
+        try {
+            node.close();
+        } catch (IOException e) {
+            System.err.println("Cannot close peer node\n" + e.getMessage());
+        }
+    }
+
+    private void stopQueryServer() {
+        if (queryServer != null) {
+            queryServer.close();
+        }
+    }
+
+    /**
+     * On SIGTERM the clients are stopped, the generation loop is interrupted and waited for, the
+     * pending transactions are written to the mempool file and the block store is flushed.
+     */
+    private void installShutdownHook() {
+        Thread generation = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopping = true;
+            clients.shutdownNow();
+            generation.interrupt();
+            try {
+                clients.awaitTermination(SHUTDOWN_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+                generation.join(SHUTDOWN_TIMEOUT_MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (minerStatistics != null) {
+                System.out.println(minerStatistics);
+            }
+            System.out.println("mempool: " + blockchain.getPendingCount() + " pending, "
+                    + blockchain.getExpiredCount() + " expired");
+            stopQueryServer();
+            stopNode();
+            blockchain.persistMempool(MEMPOOL_PATH);
+            blockchain.close();
+        }, "blockchain-shutdown"));
+    }
+
+    /**
+     * Stops the clients before the blockchain is closed, a client may be registering a key or waiting
+     * for the admission of its transaction.
+     */
+    private void stopClients() {
         clients.shutdownNow();
+        try {
+            clients.awaitTermination(SHUTDOWN_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
      * start all chat clients before the blockchain generation starts. They will produce and digitally sign
      * chat messages during all subsequent program run. The chat clients thread pool is stopped at the end
-     * of the run() method, that calls this method.
+     * of the run() method, that calls this method. The miners are rewarded to the account of the miner key.
      * @param clients the thread pool where the ClientTask's are submitted to
      */
     private void startClients(ExecutorService clients) {
-        List <KeyPair> keys = generateKeyPairs();
-        for (int i = 0; i < CLIENT_COUNT; i++) {
-            clients.submit(new TransactionClientTask(blockchain, CLIENTS.get(i), keys.get(i)));
+        FileKeyStore keyStore = generateKeyPairs();
+        blockchain.setMinerKey(keyStore.get(MINER_ACCOUNT).getPublic());
+        for (int i = 0; i < options.getClientThreads(); i++) {
+            clients.submit(new TransactionClientTask(blockchain, CLIENTS.get(i % CLIENT_COUNT), keyStore,
+                    CLIENT_BATCH_SIZE));
         }
     }
 
     /**
-     * Generates keys for each client using RSA-encoding using RSAGenerator
-     * @return list of all keyPairs
+     * Loads the keys of each client and of the miners from the key store, missing ones are generated.
+     * @return the key store of all accounts
      */
-    private List<KeyPair> generateKeyPairs() {
-        List <KeyPair> keyList = new ArrayList<>(CLIENT_COUNT);
+    private FileKeyStore generateKeyPairs() {
+        FileKeyStore keyStore = new FileKeyStore(Path.of(KEY_PAIRS_PATH_PREFIX), RSA_KEY_LENGTH);
         try {
-            RSAGenerator keyGenerator = new RSAGenerator(RSA_KEY_LENGTH);
-            for (int i = 0; i < CLIENT_COUNT; i++) {
-                keyGenerator.createKeys(KEY_PAIRS_PATH_PREFIX + CLIENTS.get(i) + PUBLIC_KEY_SUFFIX,
-                        KEY_PAIRS_PATH_PREFIX + CLIENTS.get(i) + PRIVATE_KEY_SUFFIX);
-                keyList.add(keyGenerator.getKeyPair());
-                //log.info("Private/Public keypair generated for chat client " + CLIENTS.get(i));
-            }
-        } catch (NoSuchAlgorithmException | IOException exception) {
+            keyStore.getAll(CLIENTS);
+            keyStore.get(MINER_ACCOUNT);
+        } catch (BlockChainSecurityException exception) {
             errorExit("Error RSA-encoding key pair:", exception);
         }
-        return keyList;
+        return keyStore;
     }
 
     /**
@@ -82,44 +227,80 @@ public class BlockchainController {
      * generating the next block and the fastest wins
      * The block generation time is balanced by the blockchain in adapting the requested leading hash zeros,
      * which determine the computational complexity.
+     * The template of the next block is prepared by the BlockTemplateProducer while the current one is mined.
      * @param createdBlocks size of the blockchain at invocation time (> 0 if deserialized blockchain loaded)
      */
     private void continueGeneration(int createdBlocks) {
-        ExecutorService miners = Executors.newFixedThreadPool(MINER_COUNT);
+        ExecutorService miners = WorkerPool.create("miner", options.getMinerThreads(), options.getMinerCpus());
+        BlockTemplateProducer templates = new BlockTemplateProducer(blockchain,
+                new BlockScheduler(blockchain, MIN_BLOCK_TRANSACTIONS, MAX_BLOCK_WAIT_MILLISECONDS));
 
+        BlockTemplate template = null;
         try {
-            // creating first block without transactions
+            // creating first blocks without transactions, the genesis reward belongs to no key, the second block's
+            // reward gives the clients the first balance to send
             if (blockchain.size() == 0) {
-                blockchain.addBlock(blockchain.createBlock(""));
+                blockchain.addBlock(blockchain.createGenesisBlock());
+                ++createdBlocks;
+            }
+            if (blockchain.size() == 1) {
+                blockchain.addBlock(blockchain.createBlock(BlockTemplate.EMPTY));
                 ++createdBlocks;
             }
 
-            while (createdBlocks < BLOCKCHAIN_LENGTH) {
-                if (!blockchain.isDataQueueEmpty()) {
-                    if (!blockchain.addBlock(miners.invokeAny(getMineTasks()))) {
+            while (!stopping && (continuous || createdBlocks < BLOCKCHAIN_LENGTH)) {
+                template = templates.takeNext();
+                if (continuous || createdBlocks + 1 < BLOCKCHAIN_LENGTH) {
+                    templates.prepareNext();
+                }
+                Block block = miners.invokeAny(getMineTasks(template));
+                if (!blockchain.addBlock(block)) {
+                    if (!continuous) {
                         throw new InvalidBlockChainException("Invalid block received by miner !");
                     }
-                    ++createdBlocks;
+                    System.err.println("Invalid block received by miner, transactions are mined again");
+                    blockchain.requeue(template);
+                } else if (!block.getHash().equals(blockchain.getChainTip().getHash())) {
+                    // a peer's block won the race, ours stays on a side branch
+                    blockchain.requeue(template);
                 }
+                template = null;
+                ++createdBlocks;
             }
+        } catch (InterruptedException exception) {
+            if (!stopping) {
+                errorExit("Interrupted while blockchain creation: ", exception);
+            }
+            Thread.currentThread().interrupt();
         } catch (Exception exception) {
             miners.shutdownNow();
+            templates.shutdown();
             errorExit("Exception while blockchain creation: ", exception);
             Thread.currentThread().interrupt(); // to soothe Sonar...
         }
         miners.shutdownNow();
+        BlockTemplate prepared = templates.shutdown();
+        // templates taken out of the mempool but not committed go back for the mempool file,
+        // the older one last, as both are put back at the head
+        if (prepared != null) {
+            blockchain.requeue(prepared);
+        }
+        if (template != null) {
+            blockchain.requeue(template);
+        }
     }
 
     /**
      * creates a MineTask list (Callable<Block>) with as many copies as threads in the pool.
      * All miners get the same task, that has the computational difficulty as quantity of leading zeros in hash.
-     * In addition, the mine task includes all chat messages available at this time
-     * which are requested by the blockchain. They are stored as block data.
+     * In addition, the mine task includes the transactions of the prepared template.
+     * They are stored as block data.
+     * @param template the prepared body of the new block
      * @return List of mine tasks for creating a new block
      */
-    private List<Callable<Block>> getMineTasks() {
-        MinerTaskCallable minerTask = new MinerTaskCallable(blockchain);
-        return Collections.nCopies(MINER_COUNT, minerTask);
+    private List<Callable<Block>> getMineTasks(BlockTemplate template) {
+        MinerTaskCallable minerTask = new MinerTaskCallable(blockchain, template, minerStatistics);
+        return Collections.nCopies(options.getMinerThreads(), minerTask);
     }
 
     private void errorExit(String message, Exception exception) {
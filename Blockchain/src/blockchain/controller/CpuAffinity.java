@@ -0,0 +1,66 @@
+package blockchain.controller;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pins the calling thread to a CPU with taskset, as Java has no API for thread affinity. Works on Linux
+ * with util-linux installed only, elsewhere the first attempt prints a warning and threads stay unpinned.
+ */
+final class CpuAffinity {
+    private static final Path THREAD_SELF = Path.of("/proc/thread-self");
+    private static volatile boolean unavailable;
+
+    private CpuAffinity() {
+        // prevent instances
+    }
+
+    /**
+     * @return true if the calling thread runs on the given CPU only from now on
+     */
+    static boolean pin(int cpu) {
+        if (unavailable) {
+            return false;
+        }
+        try {
+            // the link points to <pid>/task/<tid>
+            String task = Files.readSymbolicLink(THREAD_SELF).getFileName().toString();
+            Process taskset = new ProcessBuilder("taskset", "-p", "-c", String.valueOf(cpu), task)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (taskset.waitFor() == 0) {
+                return true;
+            }
+            System.err.println("cannot pin thread " + Thread.currentThread().getName() + " to CPU " + cpu);
+            return false;
+        } catch (IOException | UnsupportedOperationException e) {
+            unavailable = true;
+            System.err.println("cannot pin threads to CPUs, taskset or /proc/thread-self missing\n" + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @param cpus CPU list as taskset takes it, e.g. "0-3,6"
+     * @return the CPU numbers in the given order
+     */
+    static List<Integer> parse(String cpus) {
+        List<Integer> result = new ArrayList<>();
+        for (String range : cpus.split(",")) {
+            String[] bounds = range.strip().split("-");
+            int first = Integer.parseInt(bounds[0].strip());
+            int last = bounds.length > 1 ? Integer.parseInt(bounds[1].strip()) : first;
+            for (int cpu = first; cpu <= last; cpu++) {
+                result.add(cpu);
+            }
+        }
+        return result;
+    }
+}
@@ -1,25 +1,48 @@
 package blockchain.controller;
 
 import blockchain.model.Block;
+import blockchain.model.BlockTemplate;
 import blockchain.model.BlockchainFacade;
 
 import java.util.concurrent.Callable;
 
 /**
  * Callable implementation, that is performed in the miners thread pool.
- * Creates a miner and returns a block containing incoming data (transactions)
+ * Creates a miner and returns a block containing the transactions of the given template.
+ * Each miner records its hashes, found blocks and mining time in its own slot of the statistics.
  */
 public class MinerTaskCallable implements Callable<Block> {
     private final BlockchainFacade blockchain;
-    private final String data;
+    private final BlockTemplate template;
+    private final MiningStatistics statistics;
 
-    public MinerTaskCallable(BlockchainFacade blockchain) {
+    public MinerTaskCallable(BlockchainFacade blockchain, BlockTemplate template) {
+        this(blockchain, template, null);
+    }
+
+    /**
+     * @param statistics per miner statistics, indexed by the WorkerPool index, null to record nothing
+     */
+    public MinerTaskCallable(BlockchainFacade blockchain, BlockTemplate template, MiningStatistics statistics) {
         this.blockchain = blockchain;
-        data = blockchain.getData();
+        this.template = template;
+        this.statistics = statistics;
     }
 
     @Override
     public Block call() {
-        return blockchain.createBlock(data);
+        int worker = WorkerPool.currentWorker();
+        if (statistics == null || !statistics.covers(worker)) {
+            return blockchain.createBlock(template);
+        }
+        long start = System.nanoTime();
+        boolean found = false;
+        try {
+            Block block = blockchain.createBlock(template, statistics.hashCounter(worker));
+            found = true;
+            return block;
+        } finally {
+            statistics.recordAttempt(worker, found, System.nanoTime() - start);
+        }
     }
 }
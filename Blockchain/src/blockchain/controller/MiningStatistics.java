@@ -0,0 +1,85 @@
+package blockchain.controller;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Hashes tried, blocks found and mining time of every miner thread. Each miner writes its own padded
+ * slot of PaddedCounters, so counting doesn't make the miners share cache lines. Totals and hash rates
+ * are only summed up when a reader asks for them.
+ */
+public final class MiningStatistics {
+    private static final int HASHES = 0;
+    private static final int BLOCKS_FOUND = 1;
+    private static final int BUSY_NANOS = 2;
+
+    private final PaddedCounters counters;
+
+    /**
+     * @param miners number of miner threads, the WorkerPool indexes of the miners must be below it
+     */
+    public MiningStatistics(int miners) {
+        counters = new PaddedCounters(miners, 3);
+    }
+
+    /**
+     * @return whether the worker has a slot here
+     */
+    public boolean covers(int worker) {
+        return worker >= 0 && worker < counters.getWorkers();
+    }
+
+    /**
+     * @return receiver of the hash progress reported while the worker mines a block
+     */
+    public LongConsumer hashCounter(int worker) {
+        return hashes -> counters.add(worker, HASHES, hashes);
+    }
+
+    /**
+     * Records one mining attempt of the worker, successful or abandoned.
+     */
+    public void recordAttempt(int worker, boolean found, long nanos) {
+        if (found) {
+            counters.add(worker, BLOCKS_FOUND, 1);
+        }
+        counters.add(worker, BUSY_NANOS, nanos);
+    }
+
+    public long getHashes() {
+        return counters.sum(HASHES);
+    }
+
+    public long getBlocksFound() {
+        return counters.sum(BLOCKS_FOUND);
+    }
+
+    /**
+     * @return sum of the hash rates of the miners, each measured over its own mining time
+     */
+    public long getHashRate() {
+        long rate = 0;
+        for (int worker = 0; worker < counters.getWorkers(); worker++) {
+            rate += rate(worker);
+        }
+        return rate;
+    }
+
+    /**
+     * @return one line with the totals and the hash rate and found blocks of every miner
+     */
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder(String.format("miners: %d threads, %d hashes, %d blocks found, %d hashes/s",
+                counters.getWorkers(), getHashes(), getBlocksFound(), getHashRate()));
+        for (int worker = 0; worker < counters.getWorkers(); worker++) {
+            line.append(String.format(", miner-%d %d blocks %d hashes/s", worker + 1,
+                    counters.get(worker, BLOCKS_FOUND), rate(worker)));
+        }
+        return line.toString();
+    }
+
+    private long rate(int worker) {
+        long nanos = counters.get(worker, BUSY_NANOS);
+        return nanos == 0 ? 0 : (long) (counters.get(worker, HASHES) * 1e9 / nanos);
+    }
+}
@@ -0,0 +1,196 @@
+package blockchain.controller;
+
+import blockchain.api.BlockExporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static blockchain.config.BlockchainConfig.CLIENT_THREADS;
+import static blockchain.config.BlockchainConfig.MINER_THREADS;
+import static blockchain.config.BlockchainConfig.SIMULATION_SEED;
+
+/**
+ * Command line options of a node:
+ * --continuous        mine without length limit and keep the stored chain
+ * --port=7001         listen for peer nodes on this localhost port
+ * --peers=7002,7003   connect to the peer nodes on these localhost ports
+ * --prune=500         keep the bodies of the newest 500 blocks only
+ * --archive           move pruned bodies into the compressed archive instead of dropping them
+ * --miner-threads=8   size of the miner pool
+ * --client-threads=2  size of the client pool
+ * --miner-cpus=2-9    pin the miner threads to these CPUs, round robin
+ * --client-cpus=0,1   pin the client threads to these CPUs, round robin
+ * --simulate          run the built-in workload as a reproducible Simulation instead of a node
+ * --simulate=FILE     run the workload script in the file as a Simulation
+ * --seed=7            seed of the simulation
+ * --query-port=8080   serve read-only chain and ledger queries as JSON on this localhost port
+ * --export=FILE       stream the stored blocks as NDJSON into the file, - for standard output, instead of running
+ * --export-format=binary  export in the columnar binary format of the BlockExporter
+ * --export-from=5000  export from this height on, appending to the file, to resume an interrupted export
+ */
+public class NodeOptions {
+    private boolean continuous;
+    private int port;
+    private final List<Integer> peers = new ArrayList<>();
+    private int pruneKeepBlocks;
+    private boolean archive;
+    private int minerThreads = MINER_THREADS;
+    private int clientThreads = CLIENT_THREADS;
+    private List<Integer> minerCpus = List.of();
+    private List<Integer> clientCpus = List.of();
+    private boolean simulation;
+    private String workload;
+    private long seed = SIMULATION_SEED;
+    private int queryPort;
+    private String export;
+    private BlockExporter.Format exportFormat = BlockExporter.Format.NDJSON;
+    private long exportFrom = 1;
+
+    public static NodeOptions parse(String[] args) {
+        NodeOptions options = new NodeOptions();
+        for (String arg : args) {
+            if (arg.equals("--continuous")) {
+                options.continuous = true;
+            } else if (arg.startsWith("--port=")) {
+                options.port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--peers=")) {
+                for (String peer : arg.substring("--peers=".length()).split(",")) {
+                    options.peers.add(Integer.parseInt(peer.strip()));
+                }
+            } else if (arg.startsWith("--prune=")) {
+                options.pruneKeepBlocks = Integer.parseInt(arg.substring("--prune=".length()));
+            } else if (arg.equals("--archive")) {
+                options.archive = true;
+            } else if (arg.startsWith("--miner-threads=")) {
+                options.minerThreads = positive(arg, arg.substring("--miner-threads=".length()));
+            } else if (arg.startsWith("--client-threads=")) {
+                options.clientThreads = positive(arg, arg.substring("--client-threads=".length()));
+            } else if (arg.startsWith("--miner-cpus=")) {
+                options.minerCpus = CpuAffinity.parse(arg.substring("--miner-cpus=".length()));
+            } else if (arg.startsWith("--client-cpus=")) {
+                options.clientCpus = CpuAffinity.parse(arg.substring("--client-cpus=".length()));
+            } else if (arg.equals("--simulate")) {
+                options.simulation = true;
+            } else if (arg.startsWith("--simulate=")) {
+                options.simulation = true;
+                options.workload = arg.substring("--simulate=".length());
+            } else if (arg.startsWith("--seed=")) {
+                options.seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.startsWith("--query-port=")) {
+                options.queryPort = positive(arg, arg.substring("--query-port=".length()));
+            } else if (arg.startsWith("--export=")) {
+                options.export = arg.substring("--export=".length());
+            } else if (arg.startsWith("--export-format=")) {
+                options.exportFormat = BlockExporter.Format.valueOf(
+                        arg.substring("--export-format=".length()).toUpperCase(Locale.ROOT));
+            } else if (arg.startsWith("--export-from=")) {
+                options.exportFrom = positive(arg, arg.substring("--export-from=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        return options;
+    }
+
+    private static int positive(String arg, String value) {
+        int number = Integer.parseInt(value);
+        if (number < 1) {
+            throw new IllegalArgumentException("Option " + arg + " needs at least 1");
+        }
+        return number;
+    }
+
+    public boolean isContinuous() {
+        return continuous;
+    }
+
+    /**
+     * @return the peer port, 0 if the node runs without networking
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public List<Integer> getPeers() {
+        return peers;
+    }
+
+    /**
+     * @return number of newest blocks that keep their bodies, 0 if pruning is off
+     */
+    public int getPruneKeepBlocks() {
+        return pruneKeepBlocks;
+    }
+
+    public boolean isArchive() {
+        return archive;
+    }
+
+    public int getMinerThreads() {
+        return minerThreads;
+    }
+
+    public int getClientThreads() {
+        return clientThreads;
+    }
+
+    /**
+     * @return CPUs the miner threads are pinned to, empty if they aren't pinned
+     */
+    public List<Integer> getMinerCpus() {
+        return minerCpus;
+    }
+
+    /**
+     * @return CPUs the client threads are pinned to, empty if they aren't pinned
+     */
+    public List<Integer> getClientCpus() {
+        return clientCpus;
+    }
+
+    public boolean isSimulation() {
+        return simulation;
+    }
+
+    /**
+     * @return path of the workload script, null for the built-in workload
+     */
+    public String getWorkload() {
+        return workload;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return port of the QueryHttpServer, 0 if queries aren't served
+     */
+    public int getQueryPort() {
+        return queryPort;
+    }
+
+    public boolean isExport() {
+        return export != null;
+    }
+
+    /**
+     * @return file the blocks are exported to, - for standard output
+     */
+    public String getExport() {
+        return export;
+    }
+
+    public BlockExporter.Format getExportFormat() {
+        return exportFormat;
+    }
+
+    public long getExportFrom() {
+        return exportFrom;
+    }
+
+    public boolean isNetworked() {
+        return port > 0;
+    }
+}
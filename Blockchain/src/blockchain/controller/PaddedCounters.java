@@ -0,0 +1,66 @@
+package blockchain.controller;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Counters with one slot per worker thread. Every slot has its own cache lines, so workers on different
+ * cores don't invalidate each other's line when they count. Each slot is written by its worker only,
+ * readers sum the slots when asked.
+ */
+public final class PaddedCounters {
+    /** 16 longs are 128 bytes, a cache line and the neighbour line the CPU prefetches with it */
+    private static final int STRIDE = 16;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int workers;
+    private final int counters;
+    private final long[] slots;
+
+    /**
+     * @param counters number of counters per worker, at most 16
+     */
+    public PaddedCounters(int workers, int counters) {
+        if (counters > STRIDE) {
+            throw new IllegalArgumentException("At most " + STRIDE + " counters per worker");
+        }
+        this.workers = workers;
+        this.counters = counters;
+        // one stride before the first slot keeps it off the line of the array header
+        this.slots = new long[(workers + 1) * STRIDE];
+    }
+
+    /**
+     * Called by the worker owning the slot only.
+     */
+    public void add(int worker, int counter, long delta) {
+        int index = index(worker, counter);
+        SLOTS.setOpaque(slots, index, (long) SLOTS.getOpaque(slots, index) + delta);
+    }
+
+    public long get(int worker, int counter) {
+        return (long) SLOTS.getOpaque(slots, index(worker, counter));
+    }
+
+    /**
+     * @return the counter summed over all workers
+     */
+    public long sum(int counter) {
+        long sum = 0;
+        for (int worker = 0; worker < workers; worker++) {
+            sum += get(worker, counter);
+        }
+        return sum;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    private int index(int worker, int counter) {
+        if (worker < 0 || worker >= workers || counter < 0 || counter >= counters) {
+            throw new IndexOutOfBoundsException("No counter " + counter + " of worker " + worker);
+        }
+        return (worker + 1) * STRIDE + counter;
+    }
+}
@@ -0,0 +1,199 @@
+package blockchain.controller;
+
+import blockchain.exceptions.BlockChainSecurityException;
+import blockchain.exceptions.InvalidBlockChainException;
+import blockchain.model.Block;
+import blockchain.model.BlockTemplate;
+import blockchain.model.Blockchain;
+import blockchain.model.BlockchainFacade;
+import blockchain.model.SignedTransaction;
+import blockchain.security.FileKeyStore;
+import blockchain.security.HashUtil;
+import blockchain.security.PublicKeyRegistry;
+import blockchain.security.RSASignerAndValidator;
+import blockchain.storage.BlockStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static blockchain.config.BlockchainConfig.*;
+
+/**
+ * Reproducible run of a scripted workload on one thread, to catch throughput and correctness regressions.
+ * Blocks are mined on the simulation thread with a SimulationClock and seeded magic numbers, the clients
+ * draw senders, amounts, receivers and nonces from Randoms seeded from the simulation seed. Blocks are
+ * rewarded to the account of the miner key. Two runs with the same workload, seed and key files end with
+ * the same ledger and chain tip.
+ * Workload lines, '#' starts a comment:
+ * tick 1000               the clock advances by 1000 ms per mined block
+ * clients 20              every client sends a transfer or a batch, 20 rounds
+ * transfer Peter 10 Mary  a transfer of 10 VC between the accounts of Peter's and Mary's keys
+ * mine 5                  mines 5 blocks with the pending transactions
+ * The chain is kept in a temporary block store that is deleted afterwards.
+ */
+public class Simulation {
+    private static final List<String> DEFAULT_WORKLOAD = List.of(
+            "tick 1000",
+            "mine 5",
+            "clients 50",
+            "mine 20",
+            "clients 200",
+            "mine 50");
+
+    private final List<String> workload;
+    private final long seed;
+    private final SimulationClock clock = new SimulationClock(SIMULATION_START_MILLIS);
+    private final Random random;
+    private long[] latencies = new long[1024];
+    private int admissions;
+    private long tickMillis = 1000;
+    private int blocks;
+    private int transactions;
+
+    /**
+     * @param workload lines of the workload script
+     */
+    public Simulation(List<String> workload, long seed) {
+        this.workload = List.copyOf(workload);
+        this.seed = seed;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param file workload script, null for the built-in workload
+     */
+    public static Simulation load(String file, long seed) throws IOException {
+        return new Simulation(file == null ? DEFAULT_WORKLOAD : Files.readAllLines(Path.of(file)), seed);
+    }
+
+    /**
+     * Runs the workload and prints the report.
+     */
+    public void run() throws IOException {
+        Path directory = Files.createTempDirectory("blockchain-simulation");
+        Blockchain chain = Blockchain.open(new BlockStore(directory, BLOCKS_PER_SEGMENT, BLOCK_STORE_COMPRESSION));
+        chain.useSimulatedMining(clock, seed);
+        BlockchainFacade blockchain = new BlockchainFacade(chain);
+        FileKeyStore keyStore = new FileKeyStore(Path.of(KEY_PAIRS_PATH_PREFIX), RSA_KEY_LENGTH);
+        blockchain.setMinerKey(keyStore.get(MINER_ACCOUNT).getPublic());
+        List<TransactionClientTask> clients = new ArrayList<>();
+        for (String name : CLIENTS) {
+            clients.add(new TransactionClientTask(blockchain, name, keyStore, CLIENT_BATCH_SIZE,
+                    new Random(random.nextLong()), this::recordAdmission));
+        }
+        long start = System.nanoTime();
+        try {
+            blockchain.addBlock(blockchain.createGenesisBlock());
+            blocks++;
+            int lineNumber = 0;
+            for (String line : workload) {
+                lineNumber++;
+                String[] command = line.replaceFirst("#.*", "").strip().split("\\s+");
+                if (command[0].isEmpty()) {
+                    continue;
+                }
+                try {
+                    execute(command, blockchain, keyStore, clients);
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("Workload line " + lineNumber + " '" + line + "': "
+                            + e.getMessage(), e);
+                }
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            System.out.println(report(blockchain, elapsedNanos));
+        } finally {
+            blockchain.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private void execute(String[] command, BlockchainFacade blockchain, FileKeyStore keyStore,
+                         List<TransactionClientTask> clients) {
+        switch (command[0]) {
+            case "tick" -> tickMillis = Long.parseLong(command[1]);
+            case "clients" -> {
+                for (int round = Integer.parseInt(command[1]); round > 0; round--) {
+                    clients.forEach(TransactionClientTask::performClientTask);
+                }
+            }
+            case "transfer" -> transfer(blockchain, keyStore, command[1], Integer.parseInt(command[2]), command[3]);
+            case "mine" -> {
+                for (int count = Integer.parseInt(command[1]); count > 0; count--) {
+                    mine(blockchain);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown command " + command[0]);
+        }
+    }
+
+    private void mine(BlockchainFacade blockchain) {
+        BlockTemplate template = blockchain.takeTemplate();
+        Block block = blockchain.createBlock(template);
+        if (!blockchain.addBlock(block)) {
+            throw new InvalidBlockChainException("Simulated block " + block.getId() + " was rejected");
+        }
+        blocks++;
+        transactions += template.getTransactions().size();
+        clock.advance(tickMillis);
+    }
+
+    /**
+     * @param owner name of the sender's key
+     * @param receiverOwner name of the receiver's key
+     */
+    private void transfer(BlockchainFacade blockchain, FileKeyStore keyStore, String owner, int amount,
+                          String receiverOwner) {
+        KeyPair keyPair = keyStore.get(owner);
+        String sender = PublicKeyRegistry.account(owner, keyPair.getPublic());
+        String receiver = PublicKeyRegistry.account(receiverOwner, keyStore.get(receiverOwner).getPublic());
+        long keyId;
+        try {
+            keyId = blockchain.getKeyRegistry().register(sender, keyPair);
+        } catch (BlockChainSecurityException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        SignedTransaction transaction = new SignedTransaction(sender, amount, receiver, keyId, random.nextLong());
+        transaction.setSigned(RSASignerAndValidator.sign(transaction.getContent(), keyPair.getPrivate()));
+        long start = System.nanoTime();
+        blockchain.offerTransaction(transaction);
+        recordAdmission(System.nanoTime() - start);
+    }
+
+    private void recordAdmission(long nanos) {
+        if (admissions == latencies.length) {
+            latencies = Arrays.copyOf(latencies, 2 * latencies.length);
+        }
+        latencies[admissions++] = nanos;
+    }
+
+    private String report(BlockchainFacade blockchain, long elapsedNanos) {
+        long[] sorted = Arrays.copyOf(latencies, admissions);
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        String ledger = new TreeMap<>(blockchain.getLedger()).entrySet().stream()
+                .map(entry -> entry.getKey() + "=" + entry.getValue())
+                .collect(Collectors.joining(";"));
+        return String.format(Locale.ROOT, "simulation seed %d: %d blocks, %d transactions in %d ms, "
+                        + "%.1f blocks/s, %.1f transactions/s, admission latency p50 %d us, p99 %d us%n"
+                        + "ledger hash %s%nchain tip %s",
+                seed, blocks, transactions, elapsedNanos / 1_000_000, blocks / seconds, transactions / seconds,
+                percentile(sorted, 50) / 1000, percentile(sorted, 99) / 1000,
+                HashUtil.applySha256(ledger), blockchain.getChainTip().getHash());
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percent / 100.0) - 1)];
+    }
+}
@@ -0,0 +1,75 @@
+package blockchain.controller;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * Clock of a Simulation, it only moves when the simulation advances it. It runs in UTC, views in other zones
+ * show the same instant.
+ */
+class SimulationClock extends Clock {
+    private long millis;
+
+    SimulationClock(long startMillis) {
+        this.millis = startMillis;
+    }
+
+    void advance(long deltaMillis) {
+        millis += deltaMillis;
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return zone.equals(ZoneOffset.UTC) ? this : new ZonedView(this, zone);
+    }
+
+    /**
+     * The simulation clock seen from another zone, it moves with the clock.
+     */
+    private static final class ZonedView extends Clock {
+        private final SimulationClock clock;
+        private final ZoneId zone;
+
+        private ZonedView(SimulationClock clock, ZoneId zone) {
+            this.clock = clock;
+            this.zone = zone;
+        }
+
+        @Override
+        public long millis() {
+            return clock.millis();
+        }
+
+        @Override
+        public Instant instant() {
+            return clock.instant();
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return clock.withZone(zone);
+        }
+    }
+}
@@ -1,37 +1,82 @@
 package blockchain.controller;
 
+import blockchain.exceptions.BlockChainSecurityException;
 import blockchain.model.BlockchainFacade;
 import blockchain.model.SignedTransaction;
+import blockchain.model.TransactionBatch;
+import blockchain.security.FileKeyStore;
+import blockchain.security.PublicKeyRegistry;
 import blockchain.security.RSASignerAndValidator;
 
 import java.security.KeyPair;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.function.LongConsumer;
 
 import static blockchain.config.BlockchainConfig.*;
 
 /**
  * Runnable implementation, that is performed in the clients thread pool.
  * Creates random digitally signed transaction among miners and clients in random time intervals all
- * configurable in the BlockchainConfig.
+ * configurable in the BlockchainConfig. The accounts are derived from the keys in the key store, see
+ * PublicKeyRegistry. In batch mode several transfers of one sender are signed once as a TransactionBatch.
  */
 public class TransactionClientTask implements Runnable{
-    private static final Random RANDOM = new Random();
-
     private final BlockchainFacade blockchain;
     private final String name;
-    private final KeyPair keyPair;
+    private final FileKeyStore keyStore;
+    private final int batchSize;
+    /** accounts of the clients and the miners, in the order of CLIENTS */
+    private final List<String> participants;
+    private final Random random;
+    private final LongConsumer admissionNanos;
+
+    /**
+     * @param keyStore key pairs of all accounts, the transactions are signed with the key of their sender
+     */
+    public TransactionClientTask(BlockchainFacade blockchain, String name, FileKeyStore keyStore) {
+        this(blockchain, name, keyStore, 1);
+    }
+
+    /**
+     * @param batchSize number of transfers signed together as a TransactionBatch, 1 signs each one
+     */
+    public TransactionClientTask(BlockchainFacade blockchain, String name, FileKeyStore keyStore, int batchSize) {
+        this(blockchain, name, keyStore, batchSize, new Random(), nanos -> { });
+    }
 
-    public TransactionClientTask(BlockchainFacade blockchain, String name, KeyPair keyPair) {
+    /**
+     * @param random source of senders, amounts, receivers and nonces, seeded for a reproducible Simulation
+     * @param admissionNanos receives the time every offer to the blockchain took
+     */
+    public TransactionClientTask(BlockchainFacade blockchain, String name, FileKeyStore keyStore, int batchSize,
+                                 Random random, LongConsumer admissionNanos) {
        this.blockchain = blockchain;
        this.name = name;
-       this.keyPair = keyPair;
+       this.keyStore = keyStore;
+       this.batchSize = batchSize;
+       this.participants = participants(keyStore);
+       this.random = random;
+       this.admissionNanos = admissionNanos;
+    }
+
+    /**
+     * @return the accounts of the clients and of the miners, derived from their keys
+     */
+    public static List<String> participants(FileKeyStore keyStore) {
+        List<String> participants = new ArrayList<>();
+        for (String owner : CLIENTS) {
+            participants.add(PublicKeyRegistry.account(owner, keyStore.get(owner).getPublic()));
+        }
+        participants.add(PublicKeyRegistry.account(MINER_ACCOUNT, keyStore.get(MINER_ACCOUNT).getPublic()));
+        return participants;
     }
 
     /**
      * the transaction client task is to send a random transaction digitally signed to the blockchain, which in
-     * turn provides the ledger to choose possible money sender's
+     * turn provides the ledger to choose possible money sender's among the participants
      * The amount is generated in a way, that it intentionally may exceed the balance (1.02 * possible amount) in rare
      * cases. In that case, the blockchain must reject the transaction.
      */
@@ -40,13 +85,50 @@ public class TransactionClientTask implements Runnable{
         if (ledger.isEmpty()) {
             return;
         }
-        String moneySender = new ArrayList<>(ledger.keySet()).get(RANDOM.nextInt(ledger.size()));
-        int tryAmount = findRandomAmount(ledger.get(moneySender));
-        String moneyReceiver = findRandomReceiver(moneySender);
-        SignedTransaction transaction =
-                new SignedTransaction(moneySender, tryAmount, moneyReceiver, keyPair.getPublic());
-        transaction.setSigned(RSASignerAndValidator.sign(transaction.toString(), keyPair.getPrivate()));
+        // in the order of the participants, the iteration order of the ledger snapshot differs from run to run
+        List<String> senders = participants.stream().filter(ledger::containsKey).toList();
+        if (senders.isEmpty()) {
+            return;
+        }
+        String moneySender = senders.get(random.nextInt(senders.size()));
+        KeyPair keyPair = keyStore.get(PublicKeyRegistry.owner(moneySender));
+        long keyId;
+        try {
+            keyId = blockchain.getKeyRegistry().register(moneySender, keyPair);
+        } catch (BlockChainSecurityException e) {
+            return; // the account is derived from an earlier key of the owner
+        }
+        if (batchSize > 1) {
+            performBatch(moneySender, ledger.get(moneySender), keyId, keyPair);
+            return;
+        }
+        SignedTransaction transaction = createTransaction(moneySender, ledger.get(moneySender), keyId);
+        transaction.setSigned(RSASignerAndValidator.sign(transaction.getContent(), keyPair.getPrivate()));
+        long start = System.nanoTime();
         blockchain.offerTransaction(transaction);
+        admissionNanos.accept(System.nanoTime() - start);
+    }
+
+    /**
+     * Sends several transfers of the sender signed once as a batch. Together they may exceed the balance,
+     * the blockchain rejects the transfers that don't fit anymore.
+     */
+    private void performBatch(String moneySender, int senderBalance, long keyId, KeyPair keyPair) {
+        List<SignedTransaction> transactions = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            transactions.add(createTransaction(moneySender, Math.max(1, senderBalance / batchSize), keyId));
+        }
+        TransactionBatch batch = new TransactionBatch(moneySender, keyId, transactions);
+        batch.setSigned(RSASignerAndValidator.sign(batch.getContent(), keyPair.getPrivate()));
+        long start = System.nanoTime();
+        blockchain.offerBatch(batch);
+        admissionNanos.accept(System.nanoTime() - start);
+    }
+
+    private SignedTransaction createTransaction(String moneySender, int senderBalance, long keyId) {
+        int tryAmount = findRandomAmount(senderBalance);
+        String moneyReceiver = findRandomReceiver(moneySender);
+        return new SignedTransaction(moneySender, tryAmount, moneyReceiver, keyId, random.nextLong());
     }
 
     /**
@@ -56,28 +138,21 @@ public class TransactionClientTask implements Runnable{
      * @return the random amount - which may be slightly too high.
      */
     private int findRandomAmount(int senderBalance) {
-        int amount = RANDOM.nextInt((int) (senderBalance * 1.02));
+        int amount = random.nextInt((int) (senderBalance * 1.02));
         return amount == 0 ? 1 : amount;
     }
 
     /**
      * randomly finds a money receiver different form the sender given. While the sender is randomly chosen only
      * among the participants who have a positive account balance in the blockchain's ledger, the receiver is chosen
-     * over all miners and clients.
+     * over all participants. If the sender is drawn, the next participant receives instead.
      * @param sender the money sender previously chosen
-     * @return the name of the money receiver
+     * @return the account of the money receiver
      */
     private String findRandomReceiver(String sender) {
-        String receiver;
-        do {
-            int random = RANDOM.nextInt(MINER_COUNT + CLIENT_COUNT);
-            if (random < MINER_COUNT) {
-                receiver =  String.format("miner%d", random + 1);
-            } else {
-                receiver = CLIENTS.get(random - MINER_COUNT);
-            }
-        } while (sender.equals(receiver));
-        return receiver;
+        int index = random.nextInt(participants.size());
+        String receiver = participants.get(index);
+        return sender.equals(receiver) ? participants.get((index + 1) % participants.size()) : receiver;
     }
 
     /**
@@ -88,8 +163,8 @@ public class TransactionClientTask implements Runnable{
     public void run() {
         try {
             while (!Thread.interrupted()) {
-                //Thread.sleep(RANDOM.nextInt(MAX_CLIENT_PAUSE_MILLISECONDS));
-                Thread.sleep(RANDOM.nextInt(5));
+                //Thread.sleep(random.nextInt(MAX_CLIENT_PAUSE_MILLISECONDS));
+                Thread.sleep(random.nextInt(5));
                 performClientTask();
             }
         } catch (InterruptedException e) {
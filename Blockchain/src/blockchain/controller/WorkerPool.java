@@ -0,0 +1,115 @@
+package blockchain.controller;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Fixed thread pools of one role each, e.g. the miners or the clients. The threads are named after the
+ * role and know their index in the pool, so they can count in their own PaddedCounters slot. No two live
+ * threads of a pool share an index.
+ * If CPUs are given, every thread pins itself to one of them when it starts, round robin. Pinning the
+ * miners to the cores of one socket keeps them from migrating between sockets and losing their caches.
+ */
+public final class WorkerPool {
+
+    private WorkerPool() {
+        // prevent instances
+    }
+
+    /**
+     * @param role thread name prefix
+     * @param cpus CPUs to pin the threads to, empty to leave the placement to the operating system
+     */
+    public static ExecutorService create(String role, int threads, List<Integer> cpus) {
+        return Executors.newFixedThreadPool(threads, new WorkerFactory(role, threads, cpus));
+    }
+
+    /**
+     * @return index of the calling thread in its pool, -1 if it isn't a pool thread
+     */
+    public static int currentWorker() {
+        return Thread.currentThread() instanceof Worker worker ? worker.index : -1;
+    }
+
+    /**
+     * Hands out the indexes of the pool. A thread replacing a dead one is created while the dead one still
+     * runs, so the index is taken when a thread starts and given back when it ends.
+     */
+    private static final class WorkerFactory implements ThreadFactory {
+        private final String role;
+        private final List<Integer> cpus;
+        private final BlockingQueue<Integer> freeIndexes = new LinkedBlockingQueue<>();
+
+        private WorkerFactory(String role, int threads, List<Integer> cpus) {
+            this.role = role;
+            this.cpus = List.copyOf(cpus);
+            for (int i = 0; i < threads; i++) {
+                freeIndexes.add(i);
+            }
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Worker(this, role, runnable);
+        }
+
+        /**
+         * Waits for the thread being replaced to give its index back, an interrupt is kept for the task.
+         */
+        private int takeIndex() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return freeIndexes.take();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void releaseIndex(int index) {
+            freeIndexes.add(index);
+        }
+
+        private int cpu(int index) {
+            return cpus.isEmpty() ? -1 : cpus.get(index % cpus.size());
+        }
+    }
+
+    private static final class Worker extends Thread {
+        private final WorkerFactory factory;
+        private int index = -1;
+
+        private Worker(WorkerFactory factory, String role, Runnable runnable) {
+            super(runnable, role);
+            this.factory = factory;
+        }
+
+        @Override
+        public void run() {
+            index = factory.takeIndex();
+            try {
+                setName(getName() + "-" + (index + 1));
+                int cpu = factory.cpu(index);
+                if (cpu >= 0) {
+                    CpuAffinity.pin(cpu);
+                }
+                super.run();
+            } finally {
+                int released = index;
+                index = -1;
+                factory.releaseIndex(released);
+            }
+        }
+    }
+}
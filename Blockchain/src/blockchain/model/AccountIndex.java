@@ -0,0 +1,246 @@
+package blockchain.model;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Secondary index of the main chain: account name to the positions (block height, transaction offset)
+ * of all transactions the account sent or received, in chain order.
+ * The positions of an account are stored as variable length integers in a byte array, the height as the
+ * difference to the previous position. Written by the commit thread only. Every change publishes a new
+ * Postings object, readers see a consistent prefix of the shared array without locking.
+ */
+class AccountIndex {
+    private static final int FILE_VERSION = 1;
+
+    private final Map<String, Postings> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes the transactions of a block that joined the main chain.
+     */
+    void add(int height, Block block) {
+        List<SignedTransaction> transactions = block.getTransactions();
+        for (int offset = 0; offset < transactions.size(); offset++) {
+            SignedTransaction transaction = transactions.get(offset);
+            append(transaction.getSender(), height, offset);
+            if (!transaction.getReceiver().equals(transaction.getSender())) {
+                append(transaction.getReceiver(), height, offset);
+            }
+        }
+    }
+
+    /**
+     * Removes the positions of blocks that left the main chain.
+     * @param height first height that is no longer part of the main chain
+     * @param disconnected the blocks that left the main chain, only their accounts are touched
+     */
+    void removeFrom(int height, Collection<Block> disconnected) {
+        Set<String> touched = new HashSet<>();
+        disconnected.forEach(block -> block.getTransactions().forEach(transaction -> {
+            touched.add(transaction.getSender());
+            touched.add(transaction.getReceiver());
+        }));
+        for (String account : touched) {
+            Postings postings = accounts.get(account);
+            if (postings != null) {
+                Postings kept = postings.before(height);
+                if (kept.count == 0) {
+                    accounts.remove(account);
+                } else {
+                    accounts.put(account, kept);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        accounts.clear();
+    }
+
+    int count(String account) {
+        Postings postings = accounts.get(account);
+        return postings == null ? 0 : postings.count;
+    }
+
+    /**
+     * @param skip number of newest positions to skip
+     * @param limit maximal number of positions
+     * @return positions newest first, each packed as height in the upper and offset in the lower 32 bits
+     */
+    long[] newestFirst(String account, int skip, int limit) {
+        Postings postings = accounts.get(account);
+        if (postings == null || skip >= postings.count || limit <= 0) {
+            return new long[0];
+        }
+        long[] all = postings.decode();
+        int end = all.length - skip;
+        int start = Math.max(0, end - limit);
+        long[] page = new long[end - start];
+        for (int i = 0; i < page.length; i++) {
+            page[i] = all[end - 1 - i];
+        }
+        return page;
+    }
+
+    /**
+     * Builds the index of a chain in parallel: each worker indexes a range of blocks, the partial indexes
+     * are concatenated in chain order.
+     * @param chain main chain, index 0 is the genesis block
+     * @param blocksPerTask number of blocks indexed by one task
+     */
+    static AccountIndex build(List<Block> chain, int blocksPerTask) {
+        int tasks = (chain.size() + blocksPerTask - 1) / blocksPerTask;
+        List<AccountIndex> parts = IntStream.range(0, tasks).parallel().mapToObj(task -> {
+            AccountIndex part = new AccountIndex();
+            for (int i = task * blocksPerTask; i < Math.min(chain.size(), (task + 1) * blocksPerTask); i++) {
+                part.add(i + 1, chain.get(i));
+            }
+            return part;
+        }).toList();
+
+        AccountIndex index = new AccountIndex();
+        for (AccountIndex part : parts) {
+            part.accounts.forEach((account, postings) -> {
+                for (long position : postings.decode()) {
+                    index.append(account, (int) (position >>> 32), (int) position);
+                }
+            });
+        }
+        return index;
+    }
+
+    /**
+     * Writes the index together with the hash of the tip it belongs to.
+     */
+    void write(Path file, String tipHash) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(tipHash);
+            out.writeInt(accounts.size());
+            for (Map.Entry<String, Postings> entry : accounts.entrySet()) {
+                Postings postings = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(postings.count);
+                out.writeInt(postings.lastHeight);
+                out.writeInt(postings.length);
+                out.write(postings.data, 0, postings.length);
+            }
+        }
+    }
+
+    /**
+     * @return the index written for the given tip, null if the file is missing, outdated or unreadable
+     */
+    static AccountIndex read(Path file, String tipHash) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION || !in.readUTF().equals(tipHash)) {
+                return null;
+            }
+            AccountIndex index = new AccountIndex();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String account = in.readUTF();
+                int count = in.readInt();
+                int lastHeight = in.readInt();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                index.accounts.put(account, new Postings(data, data.length, count, lastHeight));
+            }
+            return index;
+        } catch (IOException e) {
+            System.err.println("cannot read account index " + file + ", rebuilding it\n" + e.getMessage());
+            return null;
+        }
+    }
+
+    private void append(String account, int height, int offset) {
+        Postings postings = accounts.get(account);
+        accounts.put(account, postings == null ? Postings.EMPTY.append(height, offset) : postings.append(height, offset));
+    }
+
+    /**
+     * Immutable view of the first length bytes of data. Appending writes behind length and publishes a new
+     * view, the array is only copied when it is full or when positions are removed.
+     */
+    private static final class Postings {
+        private static final Postings EMPTY = new Postings(new byte[0], 0, 0, 0);
+
+        private final byte[] data;
+        private final int length;
+        private final int count;
+        private final int lastHeight;
+
+        private Postings(byte[] data, int length, int count, int lastHeight) {
+            this.data = data;
+            this.length = length;
+            this.count = count;
+            this.lastHeight = lastHeight;
+        }
+
+        private Postings append(int height, int offset) {
+            byte[] target = data;
+            if (length + 10 > data.length) {
+                target = Arrays.copyOf(data, Math.max(16, data.length * 2));
+            }
+            int end = writeVarInt(target, length, height - lastHeight);
+            end = writeVarInt(target, end, offset);
+            return new Postings(target, end, count + 1, height);
+        }
+
+        /**
+         * @return copy without the positions at the given height and above
+         */
+        private Postings before(int height) {
+            Postings kept = EMPTY;
+            for (long position : decode()) {
+                if ((int) (position >>> 32) >= height) {
+                    break;
+                }
+                kept = kept.append((int) (position >>> 32), (int) position);
+            }
+            return kept;
+        }
+
+        private long[] decode() {
+            long[] positions = new long[count];
+            int height = 0;
+            int index = 0;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[index++];
+                    delta |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                int offset = 0;
+                shift = 0;
+                do {
+                    b = data[index++];
+                    offset |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                height += delta;
+                positions[i] = (long) height << 32 | offset;
+            }
+            return positions;
+        }
+
+        private static int writeVarInt(byte[] target, int index, int value) {
+            while ((value & ~0x7f) != 0) {
+                target[index++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            target[index++] = (byte) value;
+            return index;
+        }
+    }
+}
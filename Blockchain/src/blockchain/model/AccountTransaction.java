@@ -0,0 +1,39 @@
+package blockchain.model;
+
+/**
+ * Entry of an account history: a transaction and its position in the main chain.
+ */
+public final class AccountTransaction {
+    private final int height;
+    private final int offset;
+    private final SignedTransaction transaction;
+
+    AccountTransaction(int height, int offset, SignedTransaction transaction) {
+        this.height = height;
+        this.offset = offset;
+        this.transaction = transaction;
+    }
+
+    /**
+     * @return height of the block containing the transaction, the genesis block has height 1
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return position of the transaction within its block
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public SignedTransaction getTransaction() {
+        return transaction;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + height + "." + offset + " " + transaction;
+    }
+}
@@ -0,0 +1,103 @@
+package blockchain.model;
+
+import blockchain.security.HashUtil;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Proof that a transaction is part of a signed TransactionBatch: the batch signature and the Merkle path
+ * from the transaction hash to the signed batch root. It travels with the transaction to the peers, the
+ * mempool file and the block store, so every node can verify the transaction without the rest of the batch.
+ */
+public final class BatchProof implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String batchRoot;
+    private final byte[] signed;
+    private final int index;
+    private final List<String> path;
+
+    /**
+     * @param batchRoot Merkle root over the transaction hashes of the batch
+     * @param signed signature of the batch
+     * @param index position of the transaction in the batch, its bits tell on which side the path hashes are
+     * @param path sibling hashes from the transaction up to the root
+     */
+    public BatchProof(String batchRoot, byte[] signed, int index, List<String> path) {
+        this.batchRoot = batchRoot;
+        this.signed = signed;
+        this.index = index;
+        this.path = List.copyOf(path);
+    }
+
+    public String getBatchRoot() {
+        return batchRoot;
+    }
+
+    public byte[] getSigned() {
+        return signed;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public List<String> getPath() {
+        return path;
+    }
+
+    /**
+     * @return the text signed for the batch, see TransactionBatch.getContent()
+     */
+    public String getContent(SignedTransaction transaction) {
+        return TransactionBatch.content(transaction.getSender(), batchRoot, transaction.getKeyId());
+    }
+
+    /**
+     * @return whether hashing the transaction up the path gives the batch root
+     */
+    public boolean isMember(SignedTransaction transaction) {
+        String hash = transaction.getHash();
+        int position = index;
+        for (String sibling : path) {
+            hash = HashUtil.applySha256((position & 1) == 0 ? hash + sibling : sibling + hash);
+            position >>>= 1;
+        }
+        return position == 0 && hash.equals(batchRoot);
+    }
+
+    /**
+     * Builds the Merkle tree like BlockTemplate.merkleRoot() once and collects the path of every transaction.
+     * @return the proof of each transaction in batch order
+     */
+    static List<BatchProof> of(List<SignedTransaction> transactions, String batchRoot, byte[] signed) {
+        List<List<String>> paths = new ArrayList<>(transactions.size());
+        List<String> level = new ArrayList<>(transactions.size());
+        for (SignedTransaction transaction : transactions) {
+            paths.add(new ArrayList<>());
+            level.add(transaction.getHash());
+        }
+        for (int width = 1; level.size() > 1; width *= 2) {
+            for (int i = 0; i < transactions.size(); i++) {
+                int node = i / width;
+                int sibling = node ^ 1;
+                paths.get(i).add(sibling < level.size() ? level.get(sibling) : level.get(node));
+            }
+            int parents = (level.size() + 1) / 2;
+            for (int i = 0; i < parents; i++) {
+                String left = level.get(2 * i);
+                String right = 2 * i + 1 < level.size() ? level.get(2 * i + 1) : left;
+                level.set(i, HashUtil.applySha256(left + right));
+            }
+            level.subList(parents, level.size()).clear();
+        }
+        List<BatchProof> proofs = new ArrayList<>(transactions.size());
+        for (int i = 0; i < transactions.size(); i++) {
+            proofs.add(new BatchProof(batchRoot, signed, i, paths.get(i)));
+        }
+        return proofs;
+    }
+}
@@ -1,35 +1,150 @@
 package blockchain.model;
 
 import blockchain.config.BlockchainConfig;
+import blockchain.security.HashUtil;
+import blockchain.security.PublicKeyRegistry;
+import blockchain.storage.BinaryCodec;
 
 import java.io.Serializable;
-import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.time.Clock;
 import java.time.Duration;
-import java.time.LocalTime;
-import java.util.Date;
+import java.util.List;
 import java.util.Random;
+import java.util.function.LongConsumer;
 
 public class Block implements Serializable {
+    private static final long serialVersionUID = 2L;
     private final int startQtyOfZeros;
     private final long id;
     private final long timeStamp;
     private final String prevBlockHash;
     private final String hash;
     private final String data;
+    private final List<SignedTransaction> transactions;
+    private final String merkleRoot;
     private final long minerId;
-    private long generatedHashTime;
-    private int endQtyOfZeros;
-    private int magicNumber = 0;
+    private final long generatedHashTime;
+    private final int endQtyOfZeros;
+    private final int magicNumber;
 
-    Block (String data, String prevBlockHash, long id, int qtyOfZeros) {
-        this.data = data.strip();
+    public static final long GENESIS_MINER_ID = 0;
+    /** hashes a miner tries before it reports its progress */
+    public static final int HASH_PROGRESS_INTERVAL = 4096;
+
+    /**
+     * Mines the block on the calling thread.
+     * @param clock source of the timestamp and the generation time
+     * @param random source of the magic numbers tried
+     * @param hashProgress receives the number of hashes tried while mining
+     * @param minerId fingerprint of the key the block reward goes to, see getMinerAccount()
+     */
+    Block (BlockTemplate template, String prevBlockHash, long id, int qtyOfZeros, Clock clock, Random random,
+           LongConsumer hashProgress, long minerId) {
+        this.data = template.getData().strip();
+        this.transactions = template.getTransactions();
+        this.merkleRoot = template.getMerkleRoot();
         this.prevBlockHash = prevBlockHash;
         this.id = id;
         this.startQtyOfZeros = qtyOfZeros;
-        timeStamp = new Date().getTime();
-        hash = generateHash(qtyOfZeros);
-        minerId = Thread.currentThread().getId();
+        timeStamp = clock.millis();
+        Proof proof;
+        try {
+            proof = mine(id, BlockHeader.prefix(id, timeStamp, prevBlockHash, merkleRoot), qtyOfZeros, clock, random,
+                    hashProgress);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        magicNumber = proof.magicNumber;
+        hash = proof.hash;
+        generatedHashTime = proof.generatedHashTime;
+        endQtyOfZeros = proof.endQtyOfZeros;
+        this.minerId = minerId;
+    }
+
+    private Block(BlockHeader header, List<SignedTransaction> transactions) {
+        this.id = header.getId();
+        this.timeStamp = header.getTimeStamp();
+        this.prevBlockHash = header.getPrevBlockHash();
+        this.merkleRoot = header.getMerkleRoot();
+        this.magicNumber = header.getMagicNumber();
+        this.hash = header.getHash();
+        this.startQtyOfZeros = header.getStartQtyOfZeros();
+        this.endQtyOfZeros = header.getEndQtyOfZeros();
+        this.minerId = header.getMinerId();
+        this.generatedHashTime = header.getGeneratedHashTime();
+        this.transactions = List.copyOf(transactions);
+        this.data = BlockTemplate.data(this.transactions).strip();
+    }
+
+    /**
+     * Rebuilds a block that was mined elsewhere, e.g. received from a peer. Nothing is checked here,
+     * see isValid().
+     */
+    public static Block restore(BlockHeader header, List<SignedTransaction> transactions) {
+        return new Block(header, transactions);
+    }
+
+    /**
+     * The first block of every chain is the same, so independently started nodes agree on it.
+     */
+    static Block genesis() {
+        String merkleRoot = BlockTemplate.EMPTY.getMerkleRoot();
+        String hash = HashUtil.toHex(BlockHeader.digest(HashUtil.sha256(), BlockHeader.prefix(1, 0, "0", merkleRoot), 0));
+        return new Block(new BlockHeader(1, 0, "0", merkleRoot, 0, hash, 0, 0, GENESIS_MINER_ID, 0), List.of());
+    }
+
+    /**
+     * @return the block with the header only, as kept for blocks older than the pruning height
+     */
+    public Block withoutBody() {
+        return isPruned() ? this : new Block(getHeader(), List.of());
+    }
+
+    /**
+     * @return true if the transactions of the block were dropped, see withoutBody()
+     */
+    public boolean isPruned() {
+        return transactions.isEmpty() && !BlockTemplate.EMPTY.getMerkleRoot().equals(merkleRoot);
+    }
+
+    public BlockHeader getHeader() {
+        return new BlockHeader(id, timeStamp, prevBlockHash, merkleRoot, magicNumber, hash,
+                startQtyOfZeros, endQtyOfZeros, minerId, generatedHashTime);
+    }
+
+    /**
+     * @return true if the proof of work is valid and the transactions match the Merkle root
+     */
+    public boolean isValid() {
+        return getHeader().isProofOfWorkValid()
+                && BlockTemplate.merkleRoot(transactions).equals(merkleRoot);
+    }
+
+    /**
+     * @return true if the block has at most the given number of transactions and encoded transaction bytes
+     */
+    public boolean isWithinLimits(int maxTransactions, int maxBytes) {
+        if (transactions.size() > maxTransactions) {
+            return false;
+        }
+        long bytes = 0;
+        for (SignedTransaction transaction : transactions) {
+            bytes += BinaryCodec.encodedSize(transaction);
+        }
+        return bytes <= maxBytes;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public int getStartQtyOfZeros() {
+        return startQtyOfZeros;
     }
 
     public String getHash() {
@@ -48,63 +163,104 @@ public class Block implements Serializable {
         return minerId;
     }
 
-    public String generateHash(int qtyOfZeros) {
-        try {
-
-            LocalTime start = LocalTime.now();
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            boolean generated = false;
-            StringBuilder hexString;
-
-            Random random = new Random();
-            do {
-                String blockLines = id + timeStamp + prevBlockHash + magicNumber;
-                /* Applies sha256 to our content */
-                byte[] hash = digest.digest(blockLines.getBytes(StandardCharsets.UTF_8));
-
-                hexString = new StringBuilder();
+    /**
+     * @return the account the block reward goes to, derived from the miner's key
+     */
+    public String getMinerAccount() {
+        return PublicKeyRegistry.account(BlockchainConfig.MINER_ACCOUNT, minerId);
+    }
 
-                for (byte elem : hash) {
-                    String hex = Integer.toHexString(0xff & elem);
-                    if (hex.length() == 1) hexString.append('0');
+    public List<SignedTransaction> getTransactions() {
+        return transactions;
+    }
 
-                    if (!generated && hexString.length() >= qtyOfZeros) {
-                        if (!hexString.toString().startsWith("0".repeat(qtyOfZeros))) {
-                            magicNumber =  Math.abs(random.nextInt());
-                            break;
-                        }
-                        generated = true;
-                    }
-                    hexString.append(hex);
-                }
+    public String getMerkleRoot() {
+        return merkleRoot;
+    }
 
-            } while (!generated);
+    /**
+     * Searches a magic number whose hash starts with the given number of zero hex digits. The search state
+     * lives in locals of the mining thread, nothing is written to shared memory until the proof is found.
+     * @param hashProgress receives the number of hashes tried, in chunks of HASH_PROGRESS_INTERVAL
+     */
+    private static Proof mine(long id, byte[] header, int qtyOfZeros, Clock clock, Random random,
+                              LongConsumer hashProgress) throws InterruptedException {
+        long start = clock.millis();
+        MessageDigest digest = HashUtil.sha256();
+        int magicNumber = 0;
+        int unreported = 0;
+        byte[] hash;
+        while (true) {
+            if (Thread.currentThread().isInterrupted()) {
+                hashProgress.accept(unreported);
+                throw new InterruptedException("Mining of block " + id + " abandoned");
+            }
+            /* Applies sha256 to our content, the header is fixed while mining, only the magic number changes */
+            hash = BlockHeader.digest(digest, header, magicNumber);
+            if (++unreported == HASH_PROGRESS_INTERVAL) {
+                hashProgress.accept(unreported);
+                unreported = 0;
+            }
+            if (startsWithZeros(hash, qtyOfZeros)) {
+                break;
+            }
+            magicNumber = Math.abs(random.nextInt());
+        }
+        hashProgress.accept(unreported);
 
-            LocalTime end = LocalTime.now();
-            generatedHashTime = Duration.between(start, end).toSeconds();
+        long generatedHashTime = Duration.ofMillis(clock.millis() - start).toSeconds();
+        int endQtyOfZeros = generatedHashTime < BlockchainConfig.BLOCK_MIN_CREATION_SECONDS ? qtyOfZeros + 1
+                : (qtyOfZeros < BlockchainConfig.BLOCK_MAX_CREATION_SECONDS ? qtyOfZeros : qtyOfZeros - 1);
+        return new Proof(magicNumber, HashUtil.toHex(hash), generatedHashTime, endQtyOfZeros);
+    }
 
-            endQtyOfZeros = generatedHashTime < BlockchainConfig.BLOCK_MIN_CREATION_SECONDS ? ++qtyOfZeros : (qtyOfZeros < BlockchainConfig.BLOCK_MAX_CREATION_SECONDS ? qtyOfZeros : --qtyOfZeros);
-            return hexString.toString();
+    /**
+     * @return true if the hex form of the hash starts with the given number of '0' digits
+     */
+    private static boolean startsWithZeros(byte[] hash, int digits) {
+        if (digits > 2 * hash.length) {
+            return false;
         }
-        catch(Exception e) {
-            throw new RuntimeException(e);
+        for (int i = 0; i < digits; i++) {
+            int nibble = i % 2 == 0 ? (hash[i / 2] >> 4) & 0xf : hash[i / 2] & 0xf;
+            if (nibble != 0) {
+                return false;
+            }
         }
+        return true;
     }
 
     @Override
     public String toString() {
         return "Block:\n" +
-                "Created by: miner" + minerId + "\n" +
-                "miner" + minerId + " gets " + BlockchainConfig.BLOCK_REWARD + " VC\n" +
+                "Created by: " + getMinerAccount() + "\n" +
+                getMinerAccount() + " gets " + BlockchainConfig.BLOCK_REWARD + " VC\n" +
                 "Id: " + id + "\n" +
                 "Timestamp: " + timeStamp + "\n" +
                 "Magic number: " + magicNumber + "\n" +
                 "Hash of the previous block:\n" + prevBlockHash + "\n" +
                 "Hash of the block:\n" + hash + "\n" +
-                "Block data:\n" + (!data.isEmpty() ? data : "No transactions") + "\n" +
+                "Block data:\n" + (isPruned() ? "Pruned" : !data.isEmpty() ? data : "No transactions") + "\n" +
                 "Block was generating for " + generatedHashTime + " seconds\n" +
                 "N " + (endQtyOfZeros - startQtyOfZeros > 0 ? "was increased by " + (endQtyOfZeros - startQtyOfZeros)
                 : (endQtyOfZeros - startQtyOfZeros < 0 ? "was decreased by " + (endQtyOfZeros - startQtyOfZeros) : "stays the same")) + "\n";
     }
 
+
+    /**
+     * Outcome of the proof of work search.
+     */
+    private static final class Proof {
+        private final int magicNumber;
+        private final String hash;
+        private final long generatedHashTime;
+        private final int endQtyOfZeros;
+
+        private Proof(int magicNumber, String hash, long generatedHashTime, int endQtyOfZeros) {
+            this.magicNumber = magicNumber;
+            this.hash = hash;
+            this.generatedHashTime = generatedHashTime;
+            this.endQtyOfZeros = endQtyOfZeros;
+        }
+    }
 }
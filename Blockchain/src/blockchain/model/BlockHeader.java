@@ -0,0 +1,102 @@
+package blockchain.model;
+
+import blockchain.security.HashUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Everything of a block except its transactions. The header alone is enough to check the hash link
+ * and the proof of work, the transactions are bound to it by the Merkle root.
+ */
+public final class BlockHeader {
+    private final long id;
+    private final long timeStamp;
+    private final String prevBlockHash;
+    private final String merkleRoot;
+    private final int magicNumber;
+    private final String hash;
+    private final int startQtyOfZeros;
+    private final int endQtyOfZeros;
+    private final long minerId;
+    private final long generatedHashTime;
+
+    public BlockHeader(long id, long timeStamp, String prevBlockHash, String merkleRoot, int magicNumber, String hash,
+                       int startQtyOfZeros, int endQtyOfZeros, long minerId, long generatedHashTime) {
+        this.id = id;
+        this.timeStamp = timeStamp;
+        this.prevBlockHash = prevBlockHash;
+        this.merkleRoot = merkleRoot;
+        this.magicNumber = magicNumber;
+        this.hash = hash;
+        this.startQtyOfZeros = startQtyOfZeros;
+        this.endQtyOfZeros = endQtyOfZeros;
+        this.minerId = minerId;
+        this.generatedHashTime = generatedHashTime;
+    }
+
+    /**
+     * @return the part of the hashed content that is fixed while mining, only the magic number follows it
+     */
+    static byte[] prefix(long id, long timeStamp, String prevBlockHash, String merkleRoot) {
+        return (id + ":" + timeStamp + ":" + prevBlockHash + ":" + merkleRoot + ":").getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] digest(MessageDigest digest, byte[] prefix, int magicNumber) {
+        digest.update(prefix);
+        return digest.digest(Integer.toString(magicNumber).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Recomputes the hash and checks it against the claimed hash and difficulty.
+     * The difficulty of a block may differ by at most one from the one it was mined with.
+     * @return true if the header carries a valid proof of work
+     */
+    public boolean isProofOfWorkValid() {
+        String computed = HashUtil.toHex(digest(HashUtil.sha256(),
+                prefix(id, timeStamp, prevBlockHash, merkleRoot), magicNumber));
+        return computed.equals(hash)
+                && hash.startsWith("0".repeat(startQtyOfZeros))
+                && Math.abs(endQtyOfZeros - startQtyOfZeros) <= 1;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public String getPrevBlockHash() {
+        return prevBlockHash;
+    }
+
+    public String getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    public int getMagicNumber() {
+        return magicNumber;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public int getStartQtyOfZeros() {
+        return startQtyOfZeros;
+    }
+
+    public int getEndQtyOfZeros() {
+        return endQtyOfZeros;
+    }
+
+    public long getMinerId() {
+        return minerId;
+    }
+
+    public long getGeneratedHashTime() {
+        return generatedHashTime;
+    }
+}
@@ -0,0 +1,201 @@
+package blockchain.model;
+
+import blockchain.storage.BinaryCodec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects the transactions of a block template within the block limits.
+ * Transfers carry no fee, so the priority of a transaction is its amount per encoded byte. The transactions
+ * of a sender only enter a block in the order they were admitted, each one was checked against the balance
+ * the ones before left. So every sender is ranked by the prefix of its pending transactions with the best
+ * average priority, and the best prefix that still fits is taken until no prefix fits anymore, like ancestor
+ * packages are ranked by fee rate. As long as everything fits, all transactions are taken in their order.
+ * A transaction may spend what other senders transferred to its sender before it was booked, so it is only
+ * selected once all earlier pending transfers to its sender are selected, the confirmed ones are in the
+ * balance already. A sender whose prefix was cut short by a missing transfer is ranked again when a transfer
+ * to it is selected.
+ * Every selected transaction is also checked against the confirmed balance and the transfers before it in the
+ * block, as a reorganization can take away what a pending transaction was booked against. Such a transaction
+ * is left out, with the later ones of its sender, until it expires.
+ */
+final class BlockPacker {
+    private final int maxTransactions;
+    private final int maxBytes;
+
+    BlockPacker(int maxTransactions, int maxBytes) {
+        this.maxTransactions = maxTransactions;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param pending transactions in booking order
+     * @param confirmed balances of the main chain the block will extend
+     * @param selected receives the transactions for the block in booking order
+     * @param left receives the other transactions in booking order
+     */
+    void pack(List<SignedTransaction> pending, Map<String, Integer> confirmed, List<SignedTransaction> selected,
+              List<SignedTransaction> left) {
+        int[] sizes = new int[pending.size()];
+        long totalBytes = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = BinaryCodec.encodedSize(pending.get(i));
+            totalBytes += sizes[i];
+        }
+        if (pending.size() <= maxTransactions && totalBytes <= maxBytes && isFunded(pending, confirmed)) {
+            selected.addAll(pending);
+            return;
+        }
+        boolean[] included = new boolean[sizes.length];
+        Map<String, Sender> senders = new LinkedHashMap<>();
+        Map<String, Incoming> incoming = new HashMap<>();
+        for (int i = 0; i < sizes.length; i++) {
+            SignedTransaction transaction = pending.get(i);
+            senders.computeIfAbsent(transaction.getSender(), name -> new Sender()).indexes.add(i);
+            incoming.computeIfAbsent(transaction.getReceiver(), name -> new Incoming()).indexes.add(i);
+        }
+        for (Map.Entry<String, Sender> sender : senders.entrySet()) {
+            sender.getValue().incoming = incoming.getOrDefault(sender.getKey(), Incoming.NONE);
+            sender.getValue().balance = confirmed.getOrDefault(sender.getKey(), 0);
+        }
+        int transactions = 0;
+        int bytes = 0;
+        while (true) {
+            Sender best = null;
+            for (Sender sender : senders.values()) {
+                if (!sender.fits(maxTransactions - transactions, maxBytes - bytes)) {
+                    sender.rank(pending, sizes, included, maxTransactions - transactions, maxBytes - bytes);
+                }
+                if (sender.bestLength > 0 && (best == null || sender.bestScore > best.bestScore)) {
+                    best = sender;
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            for (int i = 0; i < best.bestLength; i++) {
+                int index = best.indexes.get(best.next + i);
+                included[index] = true;
+                bytes += sizes[index];
+                Sender funded = senders.get(pending.get(index).getReceiver());
+                if (funded != null && funded != best) {
+                    funded.bestLength = -1; // its prefix may reach further now
+                }
+            }
+            transactions += best.bestLength;
+            best.next += best.bestLength;
+            best.balance = best.bestBalance;
+            best.nextIncoming = best.bestIncoming;
+            best.rank(pending, sizes, included, maxTransactions - transactions, maxBytes - bytes);
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            (included[i] ? selected : left).add(pending.get(i));
+        }
+    }
+
+    /**
+     * @return whether every transaction is covered by the sender's balance when all are taken in their order
+     */
+    private static boolean isFunded(List<SignedTransaction> pending, Map<String, Integer> confirmed) {
+        Map<String, Long> balances = new HashMap<>();
+        for (SignedTransaction transaction : pending) {
+            long balance = balances.computeIfAbsent(transaction.getSender(),
+                    sender -> (long) confirmed.getOrDefault(sender, 0));
+            if (transaction.getAmount() <= 0 || balance < transaction.getAmount()) {
+                return false;
+            }
+            balances.put(transaction.getSender(), balance - transaction.getAmount());
+            balances.merge(transaction.getReceiver(),
+                    confirmed.getOrDefault(transaction.getReceiver(), 0) + (long) transaction.getAmount(),
+                    (old, added) -> old + transaction.getAmount());
+        }
+        return true;
+    }
+
+    /**
+     * Pending transactions of one sender, those before next are already selected.
+     */
+    private static final class Sender {
+        private final List<Integer> indexes = new ArrayList<>();
+        /** transfers to the sender, each transaction waits for the earlier ones */
+        private Incoming incoming;
+        /** confirmed balance plus the transfers before next minus the selected transactions */
+        private long balance;
+        /** index in incoming of the first transfer not in balance yet */
+        private int nextIncoming;
+        private int next;
+        /** best prefix from next: length, 0 if none fits and -1 before ranking, average priority and bytes */
+        private int bestLength = -1;
+        private double bestScore;
+        private int bestBytes;
+        private long bestBalance;
+        private int bestIncoming;
+
+        /**
+         * @return whether the best prefix was ranked and still fits, it stays the best of the prefixes that fit
+         */
+        private boolean fits(int transactions, int bytes) {
+            return bestLength >= 0 && bestLength <= transactions && bestBytes <= bytes;
+        }
+
+        private void rank(List<SignedTransaction> pending, int[] sizes, boolean[] included, int transactions,
+                          int bytes) {
+            bestLength = 0;
+            bestBytes = 0;
+            long amount = 0;
+            int size = 0;
+            int unfunded = incoming.firstUnselected(included);
+            long available = balance;
+            int credited = nextIncoming;
+            for (int length = 1; length <= Math.min(transactions, indexes.size() - next); length++) {
+                int index = indexes.get(next + length - 1);
+                if (size + sizes[index] > bytes || unfunded < index) {
+                    break;
+                }
+                // all transfers before the transaction are selected, they precede it in the block
+                while (credited < incoming.indexes.size() && incoming.indexes.get(credited) < index) {
+                    available += pending.get(incoming.indexes.get(credited++)).getAmount();
+                }
+                SignedTransaction transaction = pending.get(index);
+                if (transaction.getAmount() <= 0 || available < transaction.getAmount()) {
+                    break;
+                }
+                available -= transaction.getAmount();
+                amount += transaction.getAmount();
+                size += sizes[index];
+                double score = (double) amount / size;
+                if (bestLength == 0 || score > bestScore) {
+                    bestLength = length;
+                    bestScore = score;
+                    bestBytes = size;
+                    bestBalance = available;
+                    bestIncoming = credited;
+                }
+            }
+        }
+    }
+
+    /**
+     * Pending transfers to one account, those before next are selected.
+     */
+    private static final class Incoming {
+        private static final Incoming NONE = new Incoming();
+
+        private final List<Integer> indexes = new ArrayList<>();
+        private int next;
+
+        /**
+         * @return index of the earliest transfer to the account that isn't selected, MAX_VALUE if there is none
+         */
+        private int firstUnselected(boolean[] included) {
+            while (next < indexes.size() && included[indexes.get(next)]) {
+                next++;
+            }
+            return next < indexes.size() ? indexes.get(next) : Integer.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package blockchain.model;
+
+import blockchain.security.HashUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Body of a block that is prepared before mining starts: the selected transactions, the block data
+ * text and the Merkle root over the transaction hashes. It doesn't depend on the chain tip, so the
+ * next template can be built while the current block is still being mined.
+ */
+public final class BlockTemplate {
+    public static final BlockTemplate EMPTY = new BlockTemplate(List.of());
+
+    private final List<SignedTransaction> transactions;
+    private final String data;
+    private final String merkleRoot;
+
+    public BlockTemplate(List<SignedTransaction> transactions) {
+        this.transactions = List.copyOf(transactions);
+        this.data = data(this.transactions);
+        this.merkleRoot = merkleRoot(this.transactions);
+    }
+
+    public List<SignedTransaction> getTransactions() {
+        return transactions;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public String getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    public boolean isEmpty() {
+        return transactions.isEmpty();
+    }
+
+    /**
+     * @return this template if all transactions match, otherwise a template of the matching ones
+     */
+    BlockTemplate retain(Predicate<SignedTransaction> filter) {
+        if (transactions.stream().allMatch(filter)) {
+            return this;
+        }
+        return new BlockTemplate(transactions.stream().filter(filter).toList());
+    }
+
+    /**
+     * @return the block data text, one transaction per line
+     */
+    static String data(List<SignedTransaction> transactions) {
+        return transactions.stream()
+                .map(SignedTransaction::toString)
+                .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * Pairwise hashes the transaction hashes level by level, an odd last hash is paired with itself.
+     * @return the root hash, "0" for a block without transactions
+     */
+    static String merkleRoot(List<SignedTransaction> transactions) {
+        if (transactions.isEmpty()) {
+            return "0";
+        }
+        List<String> level = new ArrayList<>(transactions.size());
+        transactions.forEach(transaction -> level.add(transaction.getHash()));
+        while (level.size() > 1) {
+            int parents = (level.size() + 1) / 2;
+            for (int i = 0; i < parents; i++) {
+                String left = level.get(2 * i);
+                String right = 2 * i + 1 < level.size() ? level.get(2 * i + 1) : left;
+                level.set(i, HashUtil.applySha256(left + right));
+            }
+            level.subList(parents, level.size()).clear();
+        }
+        return level.get(0);
+    }
+}
@@ -0,0 +1,79 @@
+package blockchain.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * All known blocks indexed by hash, including those of side branches. Each node knows its parent,
+ * its height and the cumulative work of the branch ending in it, which decides the fork choice.
+ * Accessed by the commit thread only.
+ */
+class BlockTree {
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    static final class Node {
+        /** replaced by the header only block when the main chain is pruned */
+        Block block;
+        final Node parent;
+        final int height;
+        final long cumulativeWork;
+
+        private Node(Block block, Node parent) {
+            this.block = block;
+            this.parent = parent;
+            this.height = parent == null ? 1 : parent.height + 1;
+            long work = parent == null ? 0 : parent.cumulativeWork;
+            this.cumulativeWork = work + Math.min(work(block), Long.MAX_VALUE - work);
+        }
+    }
+
+    Node get(String hash) {
+        return nodes.get(hash);
+    }
+
+    boolean contains(String hash) {
+        return nodes.containsKey(hash);
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @param parent node of the previous block, null for the genesis block
+     */
+    Node insert(Block block, Node parent) {
+        Node node = new Node(block, parent);
+        nodes.put(block.getHash(), node);
+        return node;
+    }
+
+    /**
+     * Forgets an invalid block, blocks building on it are rejected as their parent is unknown.
+     */
+    void remove(String hash) {
+        nodes.remove(hash);
+    }
+
+    void clear() {
+        nodes.clear();
+    }
+
+    /**
+     * Expected number of hashes needed to find a hash with the block's quantity of leading hex zeros.
+     */
+    static long work(Block block) {
+        return 1L << (4 * Math.min(block.getStartQtyOfZeros(), 15));
+    }
+
+    static Node commonAncestor(Node first, Node second) {
+        while (first != second) {
+            if (first.height >= second.height) {
+                first = first.parent;
+            } else {
+                second = second.parent;
+            }
+        }
+        return first;
+    }
+}
@@ -1,75 +1,277 @@
 package blockchain.model;
 
-import blockchain.config.BlockchainConfig;
 import blockchain.exceptions.InvalidBlockChainException;
+import blockchain.storage.BlockStore;
+import blockchain.storage.LedgerCheckpoints;
 
-import java.io.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
 
+import static blockchain.config.BlockchainConfig.ACCOUNT_INDEX_FILE;
+import static blockchain.config.BlockchainConfig.ACCOUNT_INDEX_REBUILD_BLOCKS;
 import static blockchain.config.BlockchainConfig.BLOCK_REWARD;
+import static blockchain.config.BlockchainConfig.CHECKPOINTS_KEPT;
+import static blockchain.config.BlockchainConfig.CHECKPOINT_INTERVAL_BLOCKS;
+import static blockchain.config.BlockchainConfig.MAX_BLOCK_BYTES;
+import static blockchain.config.BlockchainConfig.MAX_BLOCK_TRANSACTIONS;
+
+/**
+ * The chain and the ledger are mutated only by the single commit thread of {@link BlockchainCommitter}.
+ * Every commit publishes immutable snapshots through volatile fields, so readers never take a lock. The
+ * ledger is copied once per batch of commits, so a burst of admitted transactions doesn't copy it each time.
+ * All valid blocks are kept in a BlockTree, the main chain is the branch with the most cumulative work.
+ * On a reorganization only the blocks between the fork point and the two tips are rolled back and applied.
+ * A branch that repeats a transaction of the main chain or spends more than a sender's confirmed balance
+ * is rejected before anything is rolled back.
+ * Whenever the main chain passes a multiple of CHECKPOINT_INTERVAL_BLOCKS the confirmed ledger at its tip is
+ * checkpointed, a restart books only the blocks after the latest checkpoint into the ledger. All stored
+ * blocks are still read and linked into the block tree, so restart time keeps growing with the chain.
+ * In pruning mode the bodies of main chain blocks older than the last blocks kept and covered by a checkpoint
+ * are dropped. A reorganization can't fork below the pruned height, and the hashes of pruned transactions
+ * are forgotten, so only transactions repeated from the unpruned blocks are rejected.
+ */
+public class Blockchain {
+    /** owned by the commit thread, readers use ledgerView */
+    private final Map<String, Integer> ledger;
+    /** balances of the main chain blocks only, without the pending transactions, for the checkpoints */
+    private final Map<String, Integer> confirmedLedger = new HashMap<>();
+    /** hashes of transactions booked at admission that are not part of a block yet, with their booking number */
+    private final Map<String, Long> bookedPending = new ConcurrentHashMap<>();
+    /** number of the next booking, owned by the commit thread */
+    private long bookings;
+    /** hashes of the transactions in unpruned main chain blocks, a block repeating one is rejected */
+    private final Set<String> confirmedTransactions = new HashSet<>();
+    private final BlockTree tree = new BlockTree();
+    private BlockTree.Node tipNode;
+    private volatile ChainList blockchainList = ChainList.empty();
+    private volatile Map<String, Integer> ledgerView;
+    /** set by the commit thread when the ledger differs from ledgerView */
+    private boolean ledgerChanged;
+    private volatile Map<String, Integer> confirmedView = Map.of();
+    private volatile ChainTip tip = ChainTip.EMPTY;
+    /** maintained by the commit thread, null while open() replays the stored blocks */
+    private volatile AccountIndex accountIndex = new AccountIndex();
+    private final BlockStore store;
+    private final LedgerCheckpoints checkpoints;
+    /** while open() links the stored blocks, the ledger is built afterwards */
+    private boolean replaying;
+    private int lastCheckpointHeight;
+    private int previousCheckpointHeight;
+    /** number of main chain blocks with a body, 0 keeps all bodies */
+    private int pruneKeepBlocks;
+    private volatile int prunedHeight;
+    private BlockStore archive;
+    private final BlockchainCommitter committer = new BlockchainCommitter("blockchain-committer", this::publishLedger);
+    private volatile Clock clock = Clock.systemUTC();
+    /** fingerprint of the key the blocks mined here are rewarded to */
+    private volatile long minerKey;
+    /** Random for the magic numbers of the block at the given height */
+    private volatile LongFunction<Random> miningRandom = height -> new Random();
+
+    /**
+     * Creates an empty blockchain that is kept in memory only.
+     */
+    public Blockchain() {
+        this(null);
+    }
+
+    private Blockchain(BlockStore store) {
+        this.store = store;
+        this.checkpoints = store == null ? null : new LedgerCheckpoints(store.getDirectory(), CHECKPOINTS_KEPT);
+        this.ledger = new HashMap<>();
+        this.ledgerView = Map.of();
+    }
 
-public class Blockchain implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private final BlockchainHistory blockchainHistory = new BlockchainHistory(this);
-    private final Map<String, Integer> ledger = new ConcurrentHashMap<>();
-    private List<Block> blockchainList = new ArrayList<>();
-    private transient int qtyOfZeros = 0;
-    final ReentrantReadWriteLock reentrantLock = new ReentrantReadWriteLock();
-    final Lock readLock = reentrantLock.readLock();
-    final Lock writeLock = reentrantLock.writeLock();
     public int getBlockchainSize() {
-        return blockchainList.size();
+        return tip.getHeight();
+    }
+
+    /**
+     * Wait-free read of the chain head.
+     * @return the tip published by the last successful commit
+     */
+    public ChainTip getTip() {
+        return tip;
     }
 
-    public void setState(BlockchainState state) {
-        this.blockchainList = state.blockchainList;
+    /**
+     * @return height of the newest block without body, 0 if nothing is pruned
+     */
+    public int getPrunedHeight() {
+        return prunedHeight;
     }
 
-    public BlockchainState getState() {
-        return new BlockchainState(blockchainList);
+    /**
+     * @return immutable snapshot of the main chain, index 0 is the genesis block
+     */
+    public List<Block> getMainChain() {
+        return blockchainList;
     }
 
-    public Block generateNewBlock(String data) {
-        String prevBlockHash;
-        int id;
-        synchronized (readLock) {
-            prevBlockHash = blockchainList.size() > 0 ? blockchainList.get(blockchainList.size() - 1).getHash() : "0";
-            id = blockchainList.size() + 1;
-        }
-        return new Block(data, prevBlockHash, id, qtyOfZeros);
+    /**
+     * Runs on the commit thread, the caller waits for the result.
+     * @return true if the block is linked into the block tree, on the main chain or on a side branch
+     */
+    public boolean containsBlock(String hash) {
+        return committer.execute(() -> tree.contains(hash));
+    }
+
+    /**
+     * Mines a block with the prepared body on top of the current tip.
+     * @param template transactions, data and Merkle root of the new block
+     */
+    public Block generateNewBlock(BlockTemplate template) {
+        return generateNewBlock(template, hashes -> { });
+    }
+
+    /**
+     * Transactions of the template that were confirmed by a block of another miner since the template was
+     * taken, e.g. while it was prepared or mined, are not mined again.
+     * @param hashProgress receives the number of hashes tried while mining, see Block.HASH_PROGRESS_INTERVAL
+     */
+    public Block generateNewBlock(BlockTemplate template, LongConsumer hashProgress) {
+        ChainTip current = tip;
+        // read after the tip, so the transactions a peer block up to this tip confirmed are left out
+        BlockTemplate body = template.retain(this::isPending);
+        return new Block(body, current.getHash(), current.getHeight() + 1, current.getQtyOfZeros(), clock,
+                miningRandom.apply(current.getHeight() + 1L), hashProgress, minerKey);
+    }
+
+    /**
+     * @param keyId fingerprint of the key whose account receives the rewards of the blocks mined from now on,
+     *              see Block.getMinerAccount()
+     */
+    public void setMinerKey(long keyId) {
+        this.minerKey = keyId;
+    }
+
+    /**
+     * Makes mining reproducible, e.g. for a Simulation: block timestamps and generation times come from the
+     * clock, the magic numbers for the block at height n are drawn from a Random seeded with seed + n.
+     */
+    public void useSimulatedMining(Clock clock, long seed) {
+        this.clock = clock;
+        this.miningRandom = height -> new Random(seed + height);
     }
 
     /**
     @param  newBlock corresponds to incoming block.
     @return boolean correctness execution of the operation
-     After adding block to the blockchain it checks whether its valid, if not then processing undo operation
-     to the state the was before adding new block.
-     Also adds or updates information about miner to the ledger
+     The block is accepted if it is valid and its previous block is known, also on a side branch.
+     Executed by the commit thread, the caller waits for the result.
      */
     public boolean addNewBlock(Block newBlock) {
-        synchronized (writeLock) {
-            blockchainHistory.save();
-            blockchainList.add(newBlock);
-            qtyOfZeros = newBlock.getQtyOfZeros();
-            if (!isBlockchainValid()) {
-                blockchainHistory.undo();
+        return submitBlock(newBlock).isAccepted();
+    }
+
+    /**
+     * Adds the block to the block tree and switches the main chain if the block's branch has more
+     * work than the current one. Also adds or updates information about miner to the ledger.
+     * @param newBlock locally mined or received block
+     * @return which blocks left and joined the main chain
+     */
+    public ChainUpdate submitBlock(Block newBlock) {
+        // proof of work, Merkle root and block limits are checked by the calling thread, the commit thread only links
+        if (!newBlock.isValid() || !newBlock.isWithinLimits(MAX_BLOCK_TRANSACTIONS, MAX_BLOCK_BYTES)) {
+            return ChainUpdate.REJECTED;
+        }
+        return committer.execute(() -> {
+            ChainUpdate update = connect(newBlock);
+            if (update.isAccepted()) {
+                persist(newBlock);
+            }
+            return update;
+        });
+    }
+
+    /**
+     * Validates the transaction against the current balance of the sender and books it to the ledger.
+     * Check and update run together on the commit thread, so two transactions of the same sender
+     * can't both spend the same balance. A transaction already in a main chain block or already booked is
+     * rejected, the DuplicateGuard of the facade forgets old hashes and starts empty after a restart.
+     * @param transaction the offered transaction
+     * @return true if the transaction was booked, false if the balance was insufficient or it was known
+     */
+    public boolean admitTransaction(SignedTransaction transaction) {
+        return admitTransaction(transaction, booked -> { });
+    }
+
+    /**
+     * @param onBooked called on the commit thread right after the booking, e.g. to enqueue the transaction
+     *                 in booking order
+     */
+    public boolean admitTransaction(SignedTransaction transaction, Consumer<SignedTransaction> onBooked) {
+        return committer.execute(() -> {
+            if (transaction.getAmount() <= 0
+                    || ledger.getOrDefault(transaction.getSender(), 0) < transaction.getAmount()
+                    || confirmedTransactions.contains(transaction.getHash())
+                    || bookedPending.containsKey(transaction.getHash())) {
                 return false;
             }
-            addToLedger(newBlock.getMinerId());
-            serialize(BlockchainConfig.SERIALIZE_PATH);
-        }
-        return true;
+            book(ledger, transaction);
+            bookedPending.put(transaction.getHash(), bookings++);
+            onBooked.accept(transaction);
+            markLedgerChanged();
+            return true;
+        });
     }
 
-    public void addTransactionToLedger(SignedTransaction transaction) {
-        ledger.put(transaction.getSender(), ledger.get(transaction.getSender()) - transaction.getAmount());
-        ledger.put(transaction.getReceiver(),
-                ledger.getOrDefault(transaction.getReceiver(), 0) + transaction.getAmount());
+    /**
+     * Takes back the bookings of pending transactions that leave the mempool without being mined, e.g.
+     * because they expired. A booking stays if the receiver already spent the amount in a pending
+     * transaction of its own, it can be released after that one left the mempool.
+     * @param transactions transactions in admission order, released from the newest, so a spend is released
+     *                     before the transfer that funded it
+     * @return the released transactions
+     */
+    public List<SignedTransaction> releaseTransactions(List<SignedTransaction> transactions) {
+        return committer.execute(() -> {
+            List<SignedTransaction> released = new ArrayList<>();
+            for (int i = transactions.size() - 1; i >= 0; i--) {
+                SignedTransaction transaction = transactions.get(i);
+                if (bookedPending.containsKey(transaction.getHash())
+                        && ledger.getOrDefault(transaction.getReceiver(), 0) >= transaction.getAmount()) {
+                    bookedPending.remove(transaction.getHash());
+                    ledger.merge(transaction.getSender(), transaction.getAmount(), Integer::sum);
+                    ledger.merge(transaction.getReceiver(), -transaction.getAmount(), Integer::sum);
+                    released.add(transaction);
+                }
+            }
+            if (!released.isEmpty()) {
+                markLedgerChanged();
+            }
+            return released;
+        });
+    }
+
+    /**
+     * @return true if the transaction was booked to the ledger at admission and isn't in a block yet
+     */
+    public boolean isPending(SignedTransaction transaction) {
+        return bookedPending.containsKey(transaction.getHash());
+    }
+
+    /**
+     * Each transaction was checked against the balance left by all transactions booked before it, so pending
+     * transactions must enter blocks in booking order.
+     * @return increasing number of the transaction's booking, -1 if it isn't pending
+     */
+    public long getBookingNumber(SignedTransaction transaction) {
+        return bookedPending.getOrDefault(transaction.getHash(), -1L);
     }
 
     /**
@@ -78,12 +280,54 @@ public class Blockchain implements Serializable {
      * @return the validity check result
      */
     public boolean isTransactionValid(SignedTransaction transaction) {
-        return ledger.getOrDefault(transaction.getSender(), 0) >= transaction.getAmount();
-              //  && RSASignerAndValidator.isValid(transaction);
+        return ledgerView.getOrDefault(transaction.getSender(), 0) >= transaction.getAmount();
+    }
+
+    /**
+     * Reads only the blocks that contain transactions of the account.
+     * @param account sender or receiver name
+     * @param skip number of newest transactions to skip
+     * @param limit maximal number of transactions
+     * @return transactions of the main chain the account sent or received, newest first
+     */
+    public List<AccountTransaction> getAccountHistory(String account, int skip, int limit) {
+        AccountIndex index = accountIndex;
+        if (index == null) {
+            return List.of();
+        }
+        // the chain snapshot may be older or newer than the index, positions it doesn't cover are skipped
+        List<Block> chain = blockchainList;
+        List<AccountTransaction> history = new ArrayList<>();
+        for (long position : index.newestFirst(account, skip, limit)) {
+            int height = (int) (position >>> 32);
+            int offset = (int) position;
+            if (height <= chain.size() && offset < chain.get(height - 1).getTransactions().size()) {
+                history.add(new AccountTransaction(height, offset, chain.get(height - 1).getTransactions().get(offset)));
+            }
+        }
+        return history;
     }
 
+    /**
+     * @return number of main chain transactions the account sent or received
+     */
+    public int getAccountTransactionCount(String account) {
+        AccountIndex index = accountIndex;
+        return index == null ? 0 : index.count(account);
+    }
+
+    /**
+     * @return immutable snapshot of the ledger as of the last batch of commits
+     */
     public Map<String, Integer> getLedger() {
-        return ledger;
+        return ledgerView;
+    }
+
+    /**
+     * @return immutable snapshot of the balances of the main chain blocks, without the pending transactions
+     */
+    public Map<String, Integer> getConfirmedLedger() {
+        return confirmedView;
     }
 
     /**
@@ -92,66 +336,408 @@ public class Blockchain implements Serializable {
      * Displays result to the console
      */
     public void displayBlockchain() throws InvalidBlockChainException {
-        if (!isBlockchainValid()) {
+        List<Block> chain = blockchainList;
+        if (!isBlockchainValid(chain)) {
             throw new InvalidBlockChainException("Invalid blockchain");
         }
-        blockchainList.forEach(System.out::println);
+        chain.forEach(System.out::println);
     }
 
     public void clear() {
-        blockchainList.clear();
-        blockchainHistory.clear();
-        ledger.clear();
+        committer.execute(() -> {
+            blockchainList = ChainList.empty();
+            tip = ChainTip.EMPTY;
+            tipNode = null;
+            tree.clear();
+            ledger.clear();
+            confirmedLedger.clear();
+            confirmedView = Map.of();
+            prunedHeight = 0;
+            lastCheckpointHeight = 0;
+            previousCheckpointHeight = 0;
+            bookedPending.clear();
+            confirmedTransactions.clear();
+            accountIndex.clear();
+            markLedgerChanged();
+            if (store != null) {
+                try {
+                    store.clear();
+                    Files.deleteIfExists(store.resolve(ACCOUNT_INDEX_FILE));
+                    checkpoints.clear();
+                } catch (IOException e) {
+                    System.err.println("cannot clear block store\n" + e.getMessage());
+                }
+            }
+            return null;
+        });
     }
 
-    public void serialize(String fileName) {
-        try(ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
-            oos.writeObject(this);
-        } catch (IOException exception) {
-            System.err.println("cannot serialize to file " + fileName +"\n" + exception.getMessage());
+    /**
+     * Opens the blockchain stored in the block store: reads all stored blocks, rebuilds the block tree and
+     * the main chain from them and replays rewards and transactions of the main chain into the ledger.
+     * The ledger starts from the latest checkpoint on the main chain, only the blocks after it are replayed,
+     * the blocks before it are still read and linked.
+     * The account index written by close() is used if it belongs to the same tip, otherwise it is rebuilt
+     * in parallel.
+     * @param store the block store, which receives every block committed from now on
+     * @throws IOException if the stored blocks can't be read, nothing is written to the store then
+     * @throws InvalidBlockChainException if a stored block doesn't link to the blocks before it
+     */
+    public static Blockchain open(BlockStore store) throws IOException {
+        List<Block> stored = store.loadAll();
+        Blockchain blockchain = new Blockchain(store);
+        blockchain.committer.execute(() -> {
+            blockchain.accountIndex = null;
+            blockchain.replaying = true;
+            for (Block block : stored) {
+                if (!blockchain.connect(block).isAccepted()) {
+                    throw new InvalidBlockChainException("An invalid blockchain was loaded from the block store");
+                }
+            }
+            blockchain.replaying = false;
+            blockchain.restoreLedger();
+            Path indexFile = store.resolve(ACCOUNT_INDEX_FILE);
+            AccountIndex index = AccountIndex.read(indexFile, blockchain.tip.getHash());
+            blockchain.accountIndex = index != null ? index
+                    : AccountIndex.build(blockchain.blockchainList, ACCOUNT_INDEX_REBUILD_BLOCKS);
+            return null;
+        });
+        return blockchain;
+    }
+
+    /**
+     * Switches to pruning mode. Bodies of main chain blocks are dropped once they are older than the given
+     * number of blocks and a newer ledger checkpoint exists. Their transactions don't appear in the
+     * account history anymore.
+     * @param keepBlocks number of newest blocks that keep their bodies
+     * @param archive receives the pruned bodies when whole segments are pruned on disk, null to discard them
+     */
+    public void enablePruning(int keepBlocks, BlockStore archive) {
+        committer.execute(() -> {
+            this.pruneKeepBlocks = keepBlocks;
+            this.archive = archive;
+            prune();
+            return null;
+        });
+    }
+
+    /**
+     * Flushes the block store, writes the account index next to it, waits for pending checkpoints
+     * and stops the commit thread.
+     * Commands queued before are still executed.
+     */
+    public void close() {
+        committer.execute(() -> {
+            closeStore();
+            return null;
+        });
+        committer.shutdown();
+    }
+
+    /**
+     * Links the block into the tree and moves the main chain to it if its branch has more work.
+     * Runs on the commit thread.
+     */
+    private ChainUpdate connect(Block newBlock) {
+        if (tree.contains(newBlock.getHash())) {
+            return ChainUpdate.REJECTED;
+        }
+        BlockTree.Node parent = tree.get(newBlock.getPrevBlockHash());
+        boolean genesis = parent == null && tipNode == null && newBlock.getPrevBlockHash().equals("0");
+        if (parent == null && !genesis) {
+            return ChainUpdate.REJECTED;
+        }
+        if (newBlock.getId() != (genesis ? 1 : parent.height + 1)
+                || newBlock.getStartQtyOfZeros() < (genesis ? 0 : parent.block.getQtyOfZeros())) {
+            return ChainUpdate.REJECTED;
+        }
+        BlockTree.Node node = tree.insert(newBlock, parent);
+        if (replaying) {
+            // links only, restoreLedger() books the final main chain
+            tipNode = tipNode == null || node.cumulativeWork > tipNode.cumulativeWork ? node : tipNode;
+            return ChainUpdate.SIDE_BRANCH;
+        }
+        if (tipNode != null && node.cumulativeWork <= tipNode.cumulativeWork) {
+            return ChainUpdate.SIDE_BRANCH;
+        }
+
+        BlockTree.Node fork = tipNode == null ? null : BlockTree.commonAncestor(tipNode, node);
+        int forkHeight = fork == null ? 0 : fork.height;
+        if (forkHeight < prunedHeight) {
+            // the bodies needed to roll back are gone
+            return ChainUpdate.SIDE_BRANCH;
+        }
+        List<Block> disconnected = new ArrayList<>();
+        for (BlockTree.Node current = tipNode; current != fork; current = current.parent) {
+            disconnected.add(current.block);
+        }
+        List<Block> connected = new ArrayList<>();
+        for (BlockTree.Node current = node; current != fork; current = current.parent) {
+            connected.add(current.block);
+        }
+        Collections.reverse(connected);
+        int invalid = findInvalidBlock(disconnected, connected);
+        if (invalid >= 0) {
+            // the branch from the invalid block up to the new one can never become the main chain
+            for (BlockTree.Node current = node; current.height > forkHeight + invalid; current = current.parent) {
+                tree.remove(current.block.getHash());
+            }
+            return ChainUpdate.REJECTED;
+        }
+        disconnected.forEach(this::rollBack);
+        connected.forEach(this::apply);
+        if (accountIndex != null) {
+            accountIndex.removeFrom(forkHeight + 1, disconnected);
+            for (int i = 0; i < connected.size(); i++) {
+                accountIndex.add(forkHeight + 1 + i, connected.get(i));
+            }
+        }
+
+        // the common case appends to the tip in place, only a reorganization cuts the chain back
+        ChainList chain = blockchainList;
+        if (forkHeight < chain.size()) {
+            chain = chain.truncate(forkHeight);
         }
+        for (Block block : connected) {
+            chain = chain.append(block);
+        }
+        blockchainList = chain;
+        tipNode = node;
+        tip = ChainTip.of(newBlock, node.height);
+        confirmedView = Map.copyOf(confirmedLedger);
+        markLedgerChanged();
+        // a branch connected at once can pass a checkpoint height, the ledger is only known at the tip
+        if (checkpoints != null && node.height / CHECKPOINT_INTERVAL_BLOCKS > forkHeight / CHECKPOINT_INTERVAL_BLOCKS) {
+            checkpoints.writeAsync(new LedgerCheckpoints.Checkpoint(node.height, newBlock.getHash(), confirmedView));
+            previousCheckpointHeight = lastCheckpointHeight;
+            lastCheckpointHeight = node.height;
+            prune();
+        }
+        return new ChainUpdate(true, connected, disconnected);
     }
 
-    public static Blockchain deserialize(String fileName) {
-        try (ObjectInputStream oos = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
-            Blockchain blockchain = (Blockchain) oos.readObject();
-            if (!blockchain.isBlockchainValid()) {
-                throw new InvalidBlockChainException("An invalid blockchain was deserialized");
+    /**
+     * Checks the blocks that would join the main chain before anything is rolled back. The balances are
+     * the confirmed ones at the fork, computed as changes against the confirmed ledger at the tip, so only
+     * the accounts of the blocks involved are touched.
+     * @param disconnected main chain blocks above the fork, newest first, their transactions may be confirmed again
+     * @param connected blocks of the new branch above the fork in chain order
+     * @return index of the first connected block with a transaction that is already on the main chain
+     *         below the fork or earlier in the branch, that has no positive amount or that spends more than
+     *         the sender's balance, -1 if there is none
+     */
+    private int findInvalidBlock(List<Block> disconnected, List<Block> connected) {
+        Set<String> leaving = new HashSet<>();
+        Map<String, Integer> changes = new HashMap<>();
+        for (Block block : disconnected) {
+            changes.merge(block.getMinerAccount(), -BLOCK_REWARD, Integer::sum);
+            for (SignedTransaction transaction : block.getTransactions()) {
+                leaving.add(transaction.getHash());
+                changes.merge(transaction.getSender(), transaction.getAmount(), Integer::sum);
+                changes.merge(transaction.getReceiver(), -transaction.getAmount(), Integer::sum);
             }
-            return blockchain;
-        } catch (InvalidBlockChainException e) {
-            System.err.println(e.getMessage());
-        } catch (IOException e) {
-            System.err.println("Cannot deserialize from file " + fileName +"\n It might be empty or not exists!");
-        } catch (ClassNotFoundException e) {
-            System.err.println("Cannot deserialize file " + fileName +". File corrupted!\n"
-                    + e.getMessage());
         }
+        Set<String> branch = new HashSet<>();
+        for (int i = 0; i < connected.size(); i++) {
+            for (SignedTransaction transaction : connected.get(i).getTransactions()) {
+                String hash = transaction.getHash();
+                if (confirmedTransactions.contains(hash) && !leaving.contains(hash) || !branch.add(hash)) {
+                    return i;
+                }
+                String sender = transaction.getSender();
+                int balance = confirmedLedger.getOrDefault(sender, 0) + changes.getOrDefault(sender, 0);
+                if (transaction.getAmount() <= 0 || balance < transaction.getAmount()) {
+                    return i;
+                }
+                changes.merge(sender, -transaction.getAmount(), Integer::sum);
+                changes.merge(transaction.getReceiver(), transaction.getAmount(), Integer::sum);
+            }
+            changes.merge(connected.get(i).getMinerAccount(), BLOCK_REWARD, Integer::sum);
+        }
+        return -1;
+    }
+
+    /**
+     * Builds the main chain list of the linked tree and books it into the ledger, starting at the latest
+     * checkpoint that belongs to the main chain. Runs on the commit thread.
+     */
+    private void restoreLedger() {
+        List<Block> chain = new ArrayList<>();
+        for (BlockTree.Node current = tipNode; current != null; current = current.parent) {
+            chain.add(current.block);
+        }
+        Collections.reverse(chain);
+        blockchainList = ChainList.of(chain);
+        tip = tipNode == null ? ChainTip.EMPTY : ChainTip.of(tipNode.block, tipNode.height);
 
-        return new Blockchain();
+        int start = 0;
+        for (LedgerCheckpoints.Checkpoint checkpoint : checkpoints.newestFirst()) {
+            // a newer checkpoint may belong to a branch that lost, older ones can still be on the main chain
+            if (checkpoint.getHeight() <= chain.size()
+                    && chain.get(checkpoint.getHeight() - 1).getHash().equals(checkpoint.getBlockHash())) {
+                ledger.putAll(checkpoint.getLedger());
+                confirmedLedger.putAll(checkpoint.getLedger());
+                start = checkpoint.getHeight();
+                lastCheckpointHeight = start;
+                break;
+            }
+        }
+        for (int height = 1; height <= chain.size(); height++) {
+            // blocks without transactions look the same pruned or not, the newest pruned one counts
+            if (chain.get(height - 1).isPruned()) {
+                prunedHeight = height;
+            }
+        }
+        if (start < prunedHeight) {
+            throw new InvalidBlockChainException("No ledger checkpoint covers the pruned blocks up to height " + prunedHeight);
+        }
+        // pruned blocks have no transactions left to remember
+        chain.subList(0, start).forEach(block -> block.getTransactions().forEach(transaction ->
+                confirmedTransactions.add(transaction.getHash())));
+        chain.subList(start, chain.size()).forEach(this::apply);
+        confirmedView = Map.copyOf(confirmedLedger);
+        markLedgerChanged();
     }
 
-    static class BlockchainState implements Serializable{
-        private final List<Block> blockchainList;
+    /**
+     * Drops the bodies of the main chain blocks up to the pruning height. The height stays at or below the
+     * previous checkpoint, so a restart still finds bodies behind a checkpoint if the newest one is damaged.
+     */
+    private void prune() {
+        int height = Math.min(tip.getHeight() - pruneKeepBlocks, previousCheckpointHeight);
+        if (pruneKeepBlocks == 0 || height <= prunedHeight) {
+            return;
+        }
+        blockchainList = blockchainList.replace(prunedHeight, height, block -> {
+            // a replay of a transaction below the pruned height isn't detected anymore
+            block.getTransactions().forEach(transaction -> confirmedTransactions.remove(transaction.getHash()));
+            Block pruned = block.withoutBody();
+            tree.get(pruned.getHash()).block = pruned;
+            return pruned;
+        });
+        prunedHeight = height;
+        if (store != null) {
+            try {
+                store.prune(height, archive);
+            } catch (IOException e) {
+                System.err.println("cannot prune block store\n" + e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Books reward and transactions of a block joining the main chain.
+     */
+    private void apply(Block block) {
+        confirmTransactions(block);
+        reward(ledger, block);
+        block.getTransactions().forEach(transaction -> book(confirmedLedger, transaction));
+        reward(confirmedLedger, block);
+    }
+
+    /**
+     * Reverts reward and transactions of a block leaving the main chain. Its transactions are
+     * unbooked completely, the caller may offer them again.
+     */
+    private void rollBack(Block block) {
+        unbook(ledger, block);
+        unbook(confirmedLedger, block);
+        block.getTransactions().forEach(transaction -> confirmedTransactions.remove(transaction.getHash()));
+    }
 
-        private BlockchainState(List<Block> blockchainList) {
-            this.blockchainList = blockchainList;
+    private static void unbook(Map<String, Integer> ledger, Block block) {
+        String miner = block.getMinerAccount();
+        ledger.put(miner, ledger.getOrDefault(miner, 0) - BLOCK_REWARD);
+        for (SignedTransaction transaction : block.getTransactions()) {
+            ledger.put(transaction.getSender(), ledger.getOrDefault(transaction.getSender(), 0) + transaction.getAmount());
+            ledger.put(transaction.getReceiver(),
+                    ledger.getOrDefault(transaction.getReceiver(), 0) - transaction.getAmount());
         }
     }
 
-    private void addToLedger(long minerId) {
-        String miner = String.format("miner%d", minerId);
+    /**
+     * Transactions of the local mempool were booked when they were offered. Those of a block mined
+     * elsewhere may be unknown here, they are booked now.
+     */
+    private void confirmTransactions(Block block) {
+        for (SignedTransaction transaction : block.getTransactions()) {
+            confirmedTransactions.add(transaction.getHash());
+            if (bookedPending.remove(transaction.getHash()) == null) {
+                book(ledger, transaction);
+            }
+        }
+    }
+
+    private static void reward(Map<String, Integer> ledger, Block block) {
+        String miner = block.getMinerAccount();
         ledger.put(miner, ledger.getOrDefault(miner, 0) + BLOCK_REWARD);
     }
-    private boolean isBlockchainValid() {
-        if (blockchainList.size() < 2) {
+
+    private static void book(Map<String, Integer> ledger, SignedTransaction transaction) {
+        ledger.put(transaction.getSender(), ledger.getOrDefault(transaction.getSender(), 0) - transaction.getAmount());
+        ledger.put(transaction.getReceiver(),
+                ledger.getOrDefault(transaction.getReceiver(), 0) + transaction.getAmount());
+    }
+
+    private void persist(Block block) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.append(block);
+        } catch (IOException e) {
+            System.err.println("cannot append block " + block.getHash() + " to block store\n" + e.getMessage());
+        }
+    }
+
+    private void closeStore() {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.err.println("cannot close block store\n" + e.getMessage());
+        }
+        try {
+            accountIndex.write(store.resolve(ACCOUNT_INDEX_FILE), tip.getHash());
+        } catch (IOException e) {
+            System.err.println("cannot write account index\n" + e.getMessage());
+        }
+        checkpoints.close();
+        if (archive != null) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                System.err.println("cannot close block archive\n" + e.getMessage());
+            }
+        }
+    }
+
+    private void markLedgerChanged() {
+        ledgerChanged = true;
+    }
+
+    /**
+     * Runs after every batch of commits, before their callers are answered.
+     */
+    private void publishLedger() {
+        if (ledgerChanged) {
+            ledgerView = Map.copyOf(ledger);
+            ledgerChanged = false;
+        }
+    }
+
+    private static boolean isBlockchainValid(List<Block> chain) {
+        if (chain.size() < 2) {
             return true; //empty blockchain
         }
 
         boolean valid = true;
-        for (int i = 1; i < blockchainList.size(); i++) {
-            Block prevBlock = blockchainList.get(i - 1);
-            Block currentBlock = blockchainList.get(i);
+        for (int i = 1; i < chain.size(); i++) {
+            Block prevBlock = chain.get(i - 1);
+            Block currentBlock = chain.get(i);
             if (!prevBlock.getHash().equals(currentBlock.getPrevBlockHash())) {
                 valid = false;
                 break;
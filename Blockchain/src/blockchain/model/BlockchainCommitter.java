@@ -0,0 +1,121 @@
+package blockchain.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import static blockchain.config.BlockchainConfig.COMMIT_BATCH_COMMANDS;
+
+/**
+ * Single writer that owns every mutation of the chain and the ledger.
+ * Mutations are handed over through a lock-free queue and executed one after another on the
+ * commit thread, so the blockchain never needs a lock: readers only see the immutable
+ * snapshots the writer publishes. Commands queued meanwhile run as one batch, snapshots that are costly to
+ * copy are published once at the end of the batch, before the callers of its commands are answered.
+ */
+class BlockchainCommitter {
+    private final ConcurrentLinkedQueue<Command<?>> commands = new ConcurrentLinkedQueue<>();
+    private final Runnable afterBatch;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * @param afterBatch runs on the commit thread after every batch of commands
+     */
+    BlockchainCommitter(String name, Runnable afterBatch) {
+        this.afterBatch = afterBatch;
+        writer = new Thread(this::commitLoop, name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the mutation for the commit thread.
+     * @param mutation code that is allowed to change the blockchain state
+     * @return future completed by the commit thread with the result of the mutation
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> mutation) {
+        Command<T> command = new Command<>(mutation);
+        commands.offer(command);
+        LockSupport.unpark(writer);
+        return command.result;
+    }
+
+    /**
+     * Runs the mutation on the commit thread and waits for its result.
+     * Runtime exceptions thrown by the mutation are rethrown to the caller unwrapped.
+     */
+    <T> T execute(Supplier<T> mutation) {
+        if (Thread.currentThread() == writer) {
+            return mutation.get();
+        }
+        try {
+            return submit(mutation).join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw exception;
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(writer);
+    }
+
+    private void commitLoop() {
+        List<Command<?>> batch = new ArrayList<>(COMMIT_BATCH_COMMANDS);
+        while (running) {
+            Command<?> command = commands.poll();
+            if (command != null) {
+                command.run();
+                batch.add(command);
+                if (batch.size() < COMMIT_BATCH_COMMANDS) {
+                    continue;
+                }
+            }
+            if (batch.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                afterBatch.run();
+            } finally {
+                batch.forEach(Command::complete);
+                batch.clear();
+            }
+        }
+    }
+
+    private static class Command<T> {
+        private final Supplier<T> mutation;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private T value;
+        private Throwable failure;
+
+        private Command(Supplier<T> mutation) {
+            this.mutation = mutation;
+        }
+
+        private void run() {
+            try {
+                value = mutation.get();
+            } catch (Throwable throwable) {
+                failure = throwable;
+            }
+        }
+
+        private void complete() {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(value);
+            }
+        }
+    }
+}
@@ -1,49 +1,346 @@
 package blockchain.model;
 
+import blockchain.security.PublicKeyRegistry;
+import blockchain.security.RSASignerAndValidator;
+import blockchain.storage.BinaryCodec;
+import blockchain.storage.BlockStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+import static blockchain.config.BlockchainConfig.DUPLICATE_GUARD_CAPACITY;
+import static blockchain.config.BlockchainConfig.MAX_BLOCK_BYTES;
+import static blockchain.config.BlockchainConfig.MAX_BLOCK_TRANSACTIONS;
+import static blockchain.config.BlockchainConfig.VERIFIED_BATCHES_CAPACITY;
 
 /**
  * Facade that provides methods to interact with blockchain.
  * Also, responsible for maintaining and receiving incoming data(transactions)
  */
 public class BlockchainFacade {
-    private final ConcurrentLinkedQueue<SignedTransaction> dataQueue = new ConcurrentLinkedQueue<>();
+    /** admission order, transactions left out of a template are put back at the head */
+    private final ConcurrentLinkedDeque<SignedTransaction> dataQueue = new ConcurrentLinkedDeque<>();
+    private final BlockPacker packer = new BlockPacker(MAX_BLOCK_TRANSACTIONS, MAX_BLOCK_BYTES);
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    /** all admitted transactions not yet in a main chain block, also those taken into a template */
+    private final Map<String, SignedTransaction> pendingIndex = new ConcurrentHashMap<>();
+    /** System.nanoTime() of the admission of the transactions in the pendingIndex */
+    private final Map<String, Long> arrivalNanos = new ConcurrentHashMap<>();
+    private final DuplicateGuard duplicateGuard = new DuplicateGuard(DUPLICATE_GUARD_CAPACITY);
     private final Blockchain blockchain;
+    private final PublicKeyRegistry keyRegistry;
+    /** signed contents of batches whose signature was verified, see isAuthentic() */
+    private final Map<String, Boolean> verifiedBatches = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > VERIFIED_BATCHES_CAPACITY;
+        }
+    });
+    /** null if pending transactions don't expire */
+    private volatile MempoolExpiry expiry;
+    private final AtomicInteger expiredCount = new AtomicInteger();
+    private volatile IntConsumer arrivalListener = pending -> { };
+    private final List<Consumer<Block>> blockListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<SignedTransaction>> transactionListeners = new CopyOnWriteArrayList<>();
+
     public int size() {
         return blockchain.getBlockchainSize();
     }
 
     public BlockchainFacade(Blockchain blockchain) {
+        this(blockchain, new PublicKeyRegistry());
+    }
+
+    /**
+     * @param keyRegistry public keys the senders of admitted transactions must be bound to
+     */
+    public BlockchainFacade(Blockchain blockchain, PublicKeyRegistry keyRegistry) {
         this.blockchain = blockchain;
+        this.keyRegistry = keyRegistry;
     }
 
     /**
-     @return String that contains all available transactions separated by a line break character
+     * Starts evicting pending transactions that weren't taken into a block within the given time or number
+     * of blocks, releasing the amounts booked for them. An evicted transaction stays known to the duplicate
+     * guard, the sender has to sign a new one.
+     * @param sweepMillis interval of the sweeper thread
      */
-    public synchronized String getData() {
-        StringBuilder dataBuilder = new StringBuilder();
-        while (!dataQueue.isEmpty()) {
-            dataBuilder.append(dataQueue.poll()).append("\n");
+    public void enableExpiry(long expiryMillis, int expiryBlocks, long sweepMillis) {
+        MempoolExpiry mempoolExpiry = new MempoolExpiry(expiryMillis, expiryBlocks, sweepMillis,
+                () -> blockchain.getTip().getHeight(),
+                transaction -> pendingIndex.containsKey(transaction.getHash()), this::evict);
+        mempoolExpiry.start();
+        expiry = mempoolExpiry;
+    }
+
+    /**
+     * Removes the expired transactions that are waiting in the dataQueue and releases their booked amounts.
+     * Those taken into a template stay, they are mined or requeued. Those whose receiver already spent the
+     * amount stay too, see Blockchain.releaseTransactions(). The dataQueue is drained and put back like
+     * in takeTemplate(), so concurrent admissions keep their order.
+     */
+    private synchronized void evict(Collection<SignedTransaction> expired) {
+        Set<String> hashes = new HashSet<>();
+        expired.forEach(transaction -> hashes.add(transaction.getHash()));
+        List<SignedTransaction> queued = new ArrayList<>();
+        List<SignedTransaction> candidates = new ArrayList<>();
+        SignedTransaction transaction;
+        while ((transaction = dataQueue.poll()) != null) {
+            queued.add(transaction);
+            if (hashes.contains(transaction.getHash())) {
+                candidates.add(transaction);
+            }
         }
+        Set<SignedTransaction> released = Collections.newSetFromMap(new IdentityHashMap<>());
+        released.addAll(blockchain.releaseTransactions(candidates));
+        released.forEach(evicted -> {
+            pendingIndex.remove(evicted.getHash());
+            arrivalNanos.remove(evicted.getHash());
+        });
+        queued.removeIf(released::contains);
+        pendingCount.addAndGet(-released.size());
+        expiredCount.addAndGet(released.size());
+        putBack(queued);
+    }
 
-        return dataBuilder.toString();
+    public PublicKeyRegistry getKeyRegistry() {
+        return keyRegistry;
     }
 
     /**
-     * @param data String data that will be saved in block
-     * @return Block object that is generated by blockchain generateNewBlock(data) method
+     * @return height, hash and difficulty of the current chain head, read without locking
      */
-    public Block createBlock(String data) {
-        return blockchain.generateNewBlock(data);
+    public ChainTip getChainTip() {
+        return blockchain.getTip();
     }
 
     /**
+     * Takes the transactions for the next block out of the dataQueue, as many as the block limits allow,
+     * chosen by the BlockPacker. The others stay in the dataQueue ahead of those admitted meanwhile,
+     * so the transactions of every sender keep their order.
+     * The dataQueue is sorted by booking order first: concurrent offers and requeued templates can put a
+     * transaction in front of the transfer that funded it.
+     * @return template with the transactions, their block data text and Merkle root
+     */
+    public synchronized BlockTemplate takeTemplate() {
+        List<SignedTransaction> queued = new ArrayList<>();
+        SignedTransaction transaction;
+        while ((transaction = dataQueue.poll()) != null) {
+            queued.add(transaction);
+        }
+        Map<SignedTransaction, Long> bookingNumbers = new IdentityHashMap<>();
+        List<SignedTransaction> pending = new ArrayList<>(queued.size());
+        for (SignedTransaction queuedTransaction : queued) {
+            long bookingNumber = blockchain.getBookingNumber(queuedTransaction);
+            // a block mined elsewhere may have confirmed it meanwhile
+            if (bookingNumber >= 0) {
+                bookingNumbers.put(queuedTransaction, bookingNumber);
+                pending.add(queuedTransaction);
+            }
+        }
+        pendingCount.addAndGet(pending.size() - queued.size());
+        pending.sort(Comparator.comparing(bookingNumbers::get));
+        List<SignedTransaction> transactions = new ArrayList<>();
+        List<SignedTransaction> left = new ArrayList<>();
+        packer.pack(pending, blockchain.getConfirmedLedger(), transactions, left);
+        putBack(left);
+        pendingCount.addAndGet(-transactions.size());
+
+        return new BlockTemplate(transactions);
+    }
+
+    /**
+     * Puts the transactions back at the head of the dataQueue in their order, except those that became
+     * part of a block mined elsewhere in the meantime.
+     */
+    private void putBack(List<SignedTransaction> transactions) {
+        int dropped = 0;
+        for (int i = transactions.size() - 1; i >= 0; i--) {
+            if (blockchain.isPending(transactions.get(i))) {
+                dataQueue.offerFirst(transactions.get(i));
+            } else {
+                dropped++;
+            }
+        }
+        pendingCount.addAndGet(-dropped);
+    }
+
+    /**
+     * @param template prepared body that will be saved in block
+     * @return Block object that is generated by blockchain generateNewBlock(template) method
+     */
+    public Block createBlock(BlockTemplate template) {
+        return blockchain.generateNewBlock(template);
+    }
+
+    /**
+     * @param hashProgress receives the number of hashes tried while mining, called by the mining thread
+     */
+    public Block createBlock(BlockTemplate template, LongConsumer hashProgress) {
+        return blockchain.generateNewBlock(template, hashProgress);
+    }
+
+    /**
+     * @param fromHeight height of the first block, the genesis block has height 1
+     * @param count maximal number of blocks
+     * @return consecutive blocks of the main chain, fewer if the chain ends before, none if the first
+     *         block is pruned
+     */
+    public List<Block> getBlocks(int fromHeight, int count) {
+        List<Block> chain = blockchain.getMainChain();
+        int from = Math.max(0, fromHeight - 1);
+        if (from >= chain.size() || from < blockchain.getPrunedHeight()) {
+            return List.of();
+        }
+        return chain.subList(from, Math.min(chain.size(), from + count));
+    }
+
+    /**
+     * Pruned blocks keep their headers, so a pruned node still serves the whole header chain.
+     * @param fromHeight height of the first header, the genesis block has height 1
+     * @param count maximal number of headers
+     * @return headers of consecutive main chain blocks, fewer if the chain ends before
+     */
+    public List<BlockHeader> getHeaders(int fromHeight, int count) {
+        List<Block> chain = blockchain.getMainChain();
+        int from = Math.max(0, fromHeight - 1);
+        if (from >= chain.size()) {
+            return List.of();
+        }
+        return chain.subList(from, Math.min(chain.size(), from + count)).stream().map(Block::getHeader).toList();
+    }
+
+    /**
+     * @return immutable snapshot of the main chain published by the last commit, pruned blocks have no transactions
+     */
+    public List<Block> getMainChain() {
+        return blockchain.getMainChain();
+    }
+
+    /**
+     * @return true if the block was added before, on the main chain or on a side branch
+     */
+    public boolean containsBlock(String hash) {
+        return blockchain.containsBlock(hash);
+    }
+
+    /**
+     * Keeps only the bodies of the newest blocks, see Blockchain.enablePruning().
+     */
+    public void enablePruning(int keepBlocks, BlockStore archive) {
+        blockchain.enablePruning(keepBlocks, archive);
+    }
+
+    /**
+     * Rewards the blocks mined from now on to the account of the key, see Blockchain.setMinerKey().
+     */
+    public void setMinerKey(PublicKey key) {
+        blockchain.setMinerKey(PublicKeyRegistry.fingerprint(key));
+    }
+
+    /**
+     * @return the first block, identical on every node
+     */
+    public Block createGenesisBlock() {
+        return Block.genesis();
+    }
+
+    /**
+     * A block with a transaction that isn't signed by the key of its sender, alone or by its batch, is rejected.
      * @param newBlock instance of Block class that was generated and gonna be added to blockchain
      * @return boolean value that represents success of adding new block to blockchain
      */
     public boolean addBlock(Block newBlock) {
-        return blockchain.addNewBlock(newBlock);
+        for (SignedTransaction transaction : newBlock.getTransactions()) {
+            // pending transactions were verified when they were admitted
+            if (!pendingIndex.containsKey(transaction.getHash()) && !isAuthentic(transaction)) {
+                return false;
+            }
+        }
+        ChainUpdate update = blockchain.submitBlock(newBlock);
+        if (!update.isAccepted()) {
+            return false;
+        }
+        Set<String> confirmed = new HashSet<>();
+        update.getConnected().forEach(block ->
+                block.getTransactions().forEach(transaction -> confirmed.add(transaction.getHash())));
+        if (!confirmed.isEmpty()) {
+            // transactions that reached this node only inside a block must not be admitted afterwards
+            confirmed.forEach(duplicateGuard::add);
+            confirmed.forEach(pendingIndex::remove);
+            confirmed.forEach(arrivalNanos::remove);
+            removeFromMempool(confirmed);
+        }
+        // transactions only in the abandoned branch were unbooked and must pass the balance check again
+        update.getDisconnected().forEach(block -> block.getTransactions().stream()
+                .filter(transaction -> !confirmed.contains(transaction.getHash()))
+                .forEach(this::admit));
+        blockListeners.forEach(listener -> listener.accept(newBlock));
+        return true;
+    }
+
+    /**
+     * A block mined elsewhere may contain transactions that are still waiting in the dataQueue here.
+     */
+    private void removeFromMempool(Set<String> included) {
+        int removed = 0;
+        for (SignedTransaction transaction : dataQueue) {
+            // remove() only succeeds once, even if takeTemplate() polls concurrently
+            if (included.contains(transaction.getHash()) && dataQueue.remove(transaction)) {
+                removed++;
+            }
+        }
+        pendingCount.addAndGet(-removed);
+    }
+
+    /**
+     * @param listener called after every block that was added to the blockchain
+     */
+    public void addBlockListener(Consumer<Block> listener) {
+        blockListeners.add(listener);
+    }
+
+    /**
+     * @param listener called after every transaction that was admitted to the dataQueue
+     */
+    public void addTransactionListener(Consumer<SignedTransaction> listener) {
+        transactionListeners.add(listener);
+    }
+
+    /**
+     * Pages through the transactions an account sent or received, newest first.
+     * @param page number of the page, 0 is the newest
+     * @param pageSize transactions per page
+     */
+    public List<AccountTransaction> getAccountHistory(String account, int page, int pageSize) {
+        return blockchain.getAccountHistory(account, page * pageSize, pageSize);
+    }
+
+    /**
+     * @return number of transactions in the account history
+     */
+    public int getAccountTransactionCount(String account) {
+        return blockchain.getAccountTransactionCount(account);
     }
 
     /**
@@ -54,12 +351,75 @@ public class BlockchainFacade {
     }
 
     /**
-     * Checks whether the transaction valid, adds it to the dataQueue and blockchain ledger
+     * Checks whether the transaction valid, adds it to the dataQueue and blockchain ledger.
+     * A transaction offered before is rejected without a balance check, also if it was rejected the first time.
+     * A transaction whose key isn't the one registered for its sender or whose signature doesn't verify
+     * with that key is rejected too. Clients, peers and the restored mempool all offer through here.
      */
     public void offerTransaction(SignedTransaction transaction) {
-        if (blockchain.isTransactionValid(transaction)) {
-            dataQueue.offer(transaction);
-            blockchain.addTransactionToLedger(transaction);
+        if (isAuthentic(transaction) && duplicateGuard.add(transaction.getHash())) {
+            admit(transaction);
+        }
+    }
+
+    /**
+     * @return whether the key of the transaction is registered for its sender and its signature or BatchProof
+     *         is valid, the batch signature is checked only for the first transaction of a batch
+     */
+    private boolean isAuthentic(SignedTransaction transaction) {
+        if (!keyRegistry.isBoundTo(transaction.getSender(), transaction.getKeyId())) {
+            return false;
+        }
+        BatchProof proof = transaction.getBatchProof();
+        if (transaction.getSigned() != null || proof == null) {
+            return RSASignerAndValidator.isValid(transaction, keyRegistry.resolve(transaction.getKeyId()));
+        }
+        String content = proof.getContent(transaction);
+        if (verifiedBatches.containsKey(content)) {
+            return proof.isMember(transaction);
+        }
+        if (!RSASignerAndValidator.isValid(transaction, keyRegistry.resolve(transaction.getKeyId()))) {
+            return false;
+        }
+        verifiedBatches.put(content, Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * Verifies the signature of the batch once and admits its transactions like offerTransaction(), they
+     * carry no signature of their own but their BatchProof.
+     * @return false if the batch key isn't registered for the sender or the signature is invalid,
+     *         none of the transactions is offered then
+     */
+    public boolean offerBatch(TransactionBatch batch) {
+        if (!keyRegistry.isBoundTo(batch.getSender(), batch.getKeyId())
+                || !RSASignerAndValidator.isValid(batch, keyRegistry.resolve(batch.getKeyId()))) {
+            return false;
+        }
+        verifiedBatches.put(batch.getContent(), Boolean.TRUE);
+        for (SignedTransaction transaction : batch.getTransactions()) {
+            if (duplicateGuard.add(transaction.getHash())) {
+                admit(transaction);
+            }
+        }
+        return true;
+    }
+
+    private void admit(SignedTransaction transaction) {
+        // enqueued on the commit thread, so a transaction is never taken into a template before its funding
+        boolean booked = blockchain.admitTransaction(transaction, admitted -> {
+            arrivalNanos.put(admitted.getHash(), System.nanoTime());
+            pendingIndex.put(admitted.getHash(), admitted);
+            dataQueue.offer(admitted);
+        });
+        if (booked) {
+            MempoolExpiry mempoolExpiry = expiry;
+            if (mempoolExpiry != null) {
+                mempoolExpiry.schedule(transaction);
+            }
+            int pending = pendingCount.incrementAndGet();
+            arrivalListener.accept(pending);
+            transactionListeners.forEach(listener -> listener.accept(transaction));
         } else {
             //log.warn("Invalid digital transaction <%s> received ".formatted(transaction.toString()));
         }
@@ -69,6 +429,46 @@ public class BlockchainFacade {
         return dataQueue.isEmpty();
     }
 
+    /**
+     * @return live view of all admitted transactions that are not part of a main chain block yet
+     */
+    public Collection<SignedTransaction> getPendingTransactions() {
+        return Collections.unmodifiableCollection(pendingIndex.values());
+    }
+
+    /**
+     * @return number of admitted transactions that are not yet taken into a block
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * @return number of pending transactions evicted because they expired
+     */
+    public int getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Read from the head of the dataQueue, so it can't get out of step with the count of the admitting
+     * threads and the threads draining the queue.
+     * @return System.nanoTime() of the admission of the transaction waiting longest, now if none waits
+     */
+    public long getOldestPendingNanos() {
+        SignedTransaction oldest = dataQueue.peekFirst();
+        Long arrival = oldest == null ? null : arrivalNanos.get(oldest.getHash());
+        return arrival != null ? arrival : System.nanoTime();
+    }
+
+    /**
+     * @param arrivalListener called by the offering thread after every admitted transaction
+     *                        with the number of pending transactions
+     */
+    public void setArrivalListener(IntConsumer arrivalListener) {
+        this.arrivalListener = arrivalListener;
+    }
+
     public void displayBlockchain() {
         blockchain.displayBlockchain();
     }
@@ -80,5 +480,69 @@ public class BlockchainFacade {
 
     public void clear() {
         blockchain.clear();
+        pendingIndex.clear();
+        arrivalNanos.clear();
+    }
+
+    /**
+     * Puts the transactions of a template that wasn't mined back at the head of the dataQueue, they were
+     * admitted before those still waiting. They were already booked to the ledger when they were offered,
+     * so they are not validated again.
+     */
+    public synchronized void requeue(BlockTemplate template) {
+        pendingCount.addAndGet(template.getTransactions().size());
+        putBack(template.getTransactions());
+    }
+
+    /**
+     * Writes all pending transactions to the given file, so they survive a restart.
+     * @param fileName path of the mempool file
+     */
+    public synchronized void persistMempool(String fileName) {
+        List<SignedTransaction> pending = new ArrayList<>(dataQueue);
+        try {
+            Files.write(Path.of(fileName), BinaryCodec.encodeTransactions(pending));
+        } catch (IOException exception) {
+            System.err.println("cannot persist mempool to file " + fileName + "\n" + exception.getMessage());
+        }
+    }
+
+    /**
+     * Offers the transactions persisted by persistMempool() again and deletes the file, so they are
+     * not offered twice after a crash. The ledger restored from the block store doesn't contain them yet.
+     * @param fileName path of the mempool file
+     */
+    public void restoreMempool(String fileName) {
+        Path path = Path.of(fileName);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            BinaryCodec.decodeTransactions(ByteBuffer.wrap(Files.readAllBytes(path))).forEach(this::offerTransaction);
+        } catch (IOException exception) {
+            System.err.println("cannot restore mempool from file " + fileName + "\n" + exception.getMessage());
+        }
+        try {
+            Files.delete(path);
+        } catch (IOException exception) {
+            System.err.println("cannot delete mempool file " + fileName + "\n" + exception.getMessage());
+        }
+    }
+
+    /**
+     * Stops the mempool sweeper, flushes the block store, stops the blockchain commit thread and closes
+     * the key registry.
+     */
+    public void close() {
+        MempoolExpiry mempoolExpiry = expiry;
+        if (mempoolExpiry != null) {
+            mempoolExpiry.close();
+        }
+        blockchain.close();
+        try {
+            keyRegistry.close();
+        } catch (IOException exception) {
+            System.err.println("cannot close public key registry\n" + exception.getMessage());
+        }
     }
 }
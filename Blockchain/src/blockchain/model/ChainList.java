@@ -0,0 +1,118 @@
+package blockchain.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable snapshot of the main chain for the readers. The blocks are kept in chunks that the snapshots
+ * share: appending to the newest snapshot writes behind its end in place, as every older snapshot of the
+ * same lineage is a prefix of it and never reads there. Cutting the chain back on a reorganization or
+ * replacing blocks when pruning copies only the chunk index and the chunks that change, and starts a new
+ * lineage. Written by the commit thread only, readers get the snapshots through a volatile field.
+ */
+final class ChainList extends AbstractList<Block> implements RandomAccess {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final Block[][] chunks;
+    private final int size;
+    private final Lineage lineage;
+
+    private ChainList(Block[][] chunks, int size, Lineage lineage) {
+        this.chunks = chunks;
+        this.size = size;
+        this.lineage = lineage;
+    }
+
+    static ChainList empty() {
+        return new ChainList(new Block[0][], 0, new Lineage(0));
+    }
+
+    static ChainList of(List<Block> blocks) {
+        ChainList chain = empty();
+        for (Block block : blocks) {
+            chain = chain.append(block);
+        }
+        return chain;
+    }
+
+    @Override
+    public Block get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of chain of size " + size);
+        }
+        return chunks[index >>> CHUNK_BITS][index & (CHUNK_SIZE - 1)];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the chain with the block on top, this snapshot is unchanged
+     */
+    ChainList append(Block block) {
+        if (lineage.size != size) {
+            // a longer snapshot of the lineage reads the positions behind this one
+            return truncate(size).append(block);
+        }
+        Block[][] appended = chunks;
+        int chunk = size >>> CHUNK_BITS;
+        if (chunk == chunks.length) {
+            appended = Arrays.copyOf(chunks, Math.max(4, chunks.length * 2));
+        }
+        if (appended[chunk] == null) {
+            appended[chunk] = new Block[CHUNK_SIZE];
+        }
+        appended[chunk][size & (CHUNK_SIZE - 1)] = block;
+        lineage.size = size + 1;
+        return new ChainList(appended, size + 1, lineage);
+    }
+
+    /**
+     * @param newSize number of blocks kept, at most the size
+     * @return the first blocks of the chain, appending to it doesn't touch the chunks of this snapshot
+     */
+    ChainList truncate(int newSize) {
+        int used = (newSize + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+        Block[][] kept = Arrays.copyOf(chunks, used);
+        if (newSize % CHUNK_SIZE != 0) {
+            kept[used - 1] = kept[used - 1].clone();
+        }
+        return new ChainList(kept, newSize, new Lineage(newSize));
+    }
+
+    /**
+     * @param from index of the first block replaced
+     * @param to index behind the last block replaced, at most the size
+     * @return the chain with the blocks in the range replaced by the function's results
+     */
+    ChainList replace(int from, int to, UnaryOperator<Block> replacement) {
+        ChainList replaced = truncate(size);
+        Block[][] copied = replaced.chunks;
+        for (int index = from; index < to; index++) {
+            int chunk = index >>> CHUNK_BITS;
+            if (copied[chunk] == chunks[chunk]) {
+                copied[chunk] = copied[chunk].clone();
+            }
+            int offset = index & (CHUNK_SIZE - 1);
+            copied[chunk][offset] = replacement.apply(copied[chunk][offset]);
+        }
+        return replaced;
+    }
+
+    /**
+     * Largest size published for the chunks of a lineage, only the snapshot of that size may append in place.
+     */
+    private static final class Lineage {
+        private int size;
+
+        private Lineage(int size) {
+            this.size = size;
+        }
+    }
+}
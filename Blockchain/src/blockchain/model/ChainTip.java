@@ -0,0 +1,50 @@
+package blockchain.model;
+
+/**
+ * Immutable snapshot of the head of the chain. A new instance is published by the commit thread
+ * after every accepted block, so a single volatile read gives height, hash and difficulty that
+ * belong together.
+ */
+public final class ChainTip {
+    static final ChainTip EMPTY = new ChainTip(0, "0", 0);
+
+    private final int height;
+    private final String hash;
+    private final int qtyOfZeros;
+
+    ChainTip(int height, String hash, int qtyOfZeros) {
+        this.height = height;
+        this.hash = hash;
+        this.qtyOfZeros = qtyOfZeros;
+    }
+
+    static ChainTip of(Block block, int height) {
+        return new ChainTip(height, block.getHash(), block.getQtyOfZeros());
+    }
+
+    /**
+     * @return number of blocks in the chain, which is also the id of the tip block
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return hash of the tip block, "0" for an empty chain
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return quantity of leading zeros required for the next block
+     */
+    public int getQtyOfZeros() {
+        return qtyOfZeros;
+    }
+
+    @Override
+    public String toString() {
+        return "ChainTip{height=" + height + ", hash=" + hash + ", qtyOfZeros=" + qtyOfZeros + "}";
+    }
+}
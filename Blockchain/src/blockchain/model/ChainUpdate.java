@@ -0,0 +1,39 @@
+package blockchain.model;
+
+import java.util.List;
+
+/**
+ * Result of adding a block to the block tree. An accepted block either extends the main chain, stays
+ * on a side branch, or makes its branch the main chain. In the last case the blocks of the old branch
+ * are disconnected (newest first) and those of the new branch connected (oldest first).
+ */
+public final class ChainUpdate {
+    static final ChainUpdate REJECTED = new ChainUpdate(false, List.of(), List.of());
+    static final ChainUpdate SIDE_BRANCH = new ChainUpdate(true, List.of(), List.of());
+
+    private final boolean accepted;
+    private final List<Block> connected;
+    private final List<Block> disconnected;
+
+    ChainUpdate(boolean accepted, List<Block> connected, List<Block> disconnected) {
+        this.accepted = accepted;
+        this.connected = connected;
+        this.disconnected = disconnected;
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    public List<Block> getConnected() {
+        return connected;
+    }
+
+    public List<Block> getDisconnected() {
+        return disconnected;
+    }
+
+    public boolean isReorganization() {
+        return !disconnected.isEmpty();
+    }
+}
@@ -0,0 +1,105 @@
+package blockchain.model;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the hashes of recently offered transactions with a fixed memory budget.
+ * Two generations each hold a Bloom filter and an exact table of 64-bit fingerprints. The Bloom filter
+ * answers most lookups, the table is probed only when the filter reports a possible hit.
+ * When the current generation is full, the previous one is dropped and reused, so a hash is
+ * remembered for at least one and at most two generations.
+ */
+class DuplicateGuard {
+    private static final int HASH_FUNCTIONS = 7;
+
+    private final int capacity;
+    private Generation current;
+    private Generation previous;
+
+    /**
+     * @param capacity number of hashes per generation
+     */
+    DuplicateGuard(int capacity) {
+        this.capacity = capacity;
+        this.current = new Generation(capacity);
+        this.previous = new Generation(capacity);
+    }
+
+    /**
+     * @param hash hex SHA-256 hash of a transaction
+     * @return true if the hash wasn't seen within the last generations and is remembered now
+     */
+    synchronized boolean add(String hash) {
+        long first = Long.parseUnsignedLong(hash.substring(0, 16), 16);
+        long second = Long.parseUnsignedLong(hash.substring(16, 32), 16);
+        if (current.contains(first, second) || previous.contains(first, second)) {
+            return false;
+        }
+        if (current.count == capacity) {
+            Generation full = current;
+            current = previous;
+            current.clear();
+            previous = full;
+        }
+        current.insert(first, second);
+        return true;
+    }
+
+    private static class Generation {
+        private final long[] bits;
+        private final long[] fingerprints;
+        private int count;
+
+        private Generation(int capacity) {
+            // about ten bits per hash, below one percent false positives with seven hash functions
+            bits = new long[Math.max(1, capacity * 10 / 64)];
+            fingerprints = new long[Integer.highestOneBit(Math.max(1, capacity) * 2) * 2];
+        }
+
+        private boolean contains(long first, long second) {
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = bitIndex(first, second, i);
+                if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            long fingerprint = fingerprint(first);
+            int mask = fingerprints.length - 1;
+            for (int slot = (int) first & mask; fingerprints[slot] != 0; slot = (slot + 1) & mask) {
+                if (fingerprints[slot] == fingerprint) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void insert(long first, long second) {
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = bitIndex(first, second, i);
+                bits[bit >>> 6] |= 1L << bit;
+            }
+            int mask = fingerprints.length - 1;
+            int slot = (int) first & mask;
+            while (fingerprints[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            fingerprints[slot] = fingerprint(first);
+            count++;
+        }
+
+        private void clear() {
+            Arrays.fill(bits, 0);
+            Arrays.fill(fingerprints, 0);
+            count = 0;
+        }
+
+        private int bitIndex(long first, long second, int i) {
+            return (int) Long.remainderUnsigned(first + i * second, bits.length * 64L);
+        }
+
+        /** 0 marks a free slot */
+        private static long fingerprint(long first) {
+            return first == 0 ? 1 : first;
+        }
+    }
+}
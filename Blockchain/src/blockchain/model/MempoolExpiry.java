@@ -0,0 +1,94 @@
+package blockchain.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Expires pending transactions that weren't mined within a time or a number of blocks. Every admitted
+ * transaction is scheduled in two TimingWheels in O(1), one ticking with the sweep interval and one with
+ * the chain height. The sweeper thread advances both wheels and hands the expired transactions that are
+ * still pending to the evictor. Mined transactions are not cancelled, they are skipped when their slot
+ * comes up. Transactions the evictor keeps, e.g. because they are part of a template being mined, are
+ * checked again after the next block, which settles what kept them.
+ */
+final class MempoolExpiry {
+    private final long tickMillis;
+    private final long expiryTicks;
+    private final int expiryBlocks;
+    private final IntSupplier height;
+    private final Predicate<SignedTransaction> pending;
+    private final Consumer<Collection<SignedTransaction>> evictor;
+    private final TimingWheel<SignedTransaction> timeWheel;
+    private final TimingWheel<SignedTransaction> heightWheel;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mempool-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param height current chain height
+     * @param pending whether a transaction is still pending
+     * @param evictor removes the expired transactions from the mempool, called by the sweeper thread
+     */
+    MempoolExpiry(long expiryMillis, int expiryBlocks, long tickMillis, IntSupplier height,
+                  Predicate<SignedTransaction> pending, Consumer<Collection<SignedTransaction>> evictor) {
+        this.tickMillis = tickMillis;
+        this.expiryTicks = Math.max(1, (expiryMillis + tickMillis - 1) / tickMillis);
+        this.expiryBlocks = expiryBlocks;
+        this.height = height;
+        this.pending = pending;
+        this.evictor = evictor;
+        this.timeWheel = new TimingWheel<>((int) expiryTicks + 1, currentTick());
+        this.heightWheel = new TimingWheel<>(expiryBlocks + 1, height.getAsInt());
+    }
+
+    void start() {
+        sweeper.scheduleWithFixedDelay(this::sweep, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void schedule(SignedTransaction transaction) {
+        timeWheel.schedule(transaction, currentTick() + expiryTicks);
+        heightWheel.schedule(transaction, (long) height.getAsInt() + expiryBlocks);
+    }
+
+    private void sweep() {
+        Map<String, SignedTransaction> expired = new LinkedHashMap<>();
+        Consumer<SignedTransaction> collector = transaction -> {
+            if (pending.test(transaction)) {
+                expired.putIfAbsent(transaction.getHash(), transaction);
+            }
+        };
+        timeWheel.advance(currentTick(), collector);
+        heightWheel.advance(height.getAsInt(), collector);
+        if (expired.isEmpty()) {
+            return;
+        }
+        try {
+            evictor.accept(expired.values());
+        } catch (RuntimeException e) {
+            System.err.println("cannot evict expired transactions\n" + e.getMessage());
+        }
+        List<SignedTransaction> kept = new ArrayList<>();
+        expired.values().stream().filter(pending).forEach(kept::add);
+        long nextBlock = heightWheel.getCurrentTick() + 1;
+        kept.forEach(transaction -> heightWheel.schedule(transaction, nextBlock));
+    }
+
+    private long currentTick() {
+        return System.nanoTime() / 1_000_000 / tickMillis;
+    }
+
+    void close() {
+        sweeper.shutdownNow();
+    }
+}
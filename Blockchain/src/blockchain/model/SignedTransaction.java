@@ -1,29 +1,40 @@
 package blockchain.model;
 
+import blockchain.security.HashUtil;
+
 import java.io.Serializable;
-import java.security.PublicKey;
+import java.util.Base64;
 
 /**
  * Signed transaction, that can be stored and verified (using public key and digital signature)
- * as block data list element.
+ * as block data list element. The public key is referenced by its fingerprint, see PublicKeyRegistry.
  */
 
 public class SignedTransaction implements Serializable {
 
-    private static final long serialVersionUID = 60L;
+    private static final long serialVersionUID = 62L;
 
     private final String sender;
     private final int amount;
     private final String receiver;
-    private final PublicKey publicKey;
+    private final long keyId;
+    private final long nonce;
 
     private byte[] signed;
+    /** null unless the transaction was signed as part of a TransactionBatch */
+    private BatchProof batchProof;
+    private transient String hash;
 
-    public SignedTransaction(String sender, int amount, String receiver, PublicKey publicKey) {
+    /**
+     * @param keyId fingerprint of the sender's public key
+     * @param nonce chosen by the sender, distinguishes two payments with the same sender, amount and receiver
+     */
+    public SignedTransaction(String sender, int amount, String receiver, long keyId, long nonce) {
         this.sender = sender;
         this.amount = amount;
         this.receiver = receiver;
-        this.publicKey = publicKey;
+        this.keyId = keyId;
+        this.nonce = nonce;
     }
 
     public String getSender() {
@@ -38,8 +49,19 @@ public class SignedTransaction implements Serializable {
         return receiver;
     }
 
+    public long getNonce() {
+        return nonce;
+    }
+
     /**
-     * set the signature. Not part of the constructor here, as the toString() method is signed after
+     * @return the signed text, the transaction text, the nonce and the key fingerprint
+     */
+    public String getContent() {
+        return this + " #" + nonce + " " + Long.toHexString(keyId);
+    }
+
+    /**
+     * set the signature. Not part of the constructor here, as the getContent() method is signed after
      * instantiation.
      * @param signed the digital signature
      */
@@ -47,14 +69,37 @@ public class SignedTransaction implements Serializable {
         this.signed = signed;
     }
 
-    public PublicKey getPublicKey() {
-        return publicKey;
+    public long getKeyId() {
+        return keyId;
     }
 
     public byte[] getSigned() {
         return signed;
     }
 
+    /**
+     * @param batchProof proof of the batch signature, the transaction itself is unsigned then
+     */
+    public void setBatchProof(BatchProof batchProof) {
+        this.batchProof = batchProof;
+    }
+
+    public BatchProof getBatchProof() {
+        return batchProof;
+    }
+
+    /**
+     * @return SHA-256 over the signed text and the signature, computed once after signing, a BatchProof
+     * isn't part of it
+     */
+    public String getHash() {
+        if (hash == null) {
+            String signature = signed == null ? "" : Base64.getEncoder().encodeToString(signed);
+            hash = HashUtil.applySha256(getContent() + signature);
+        }
+        return hash;
+    }
+
     /**
      * String representation is just the transaction text who sent which amount to whom as print out.
      * @return string representation of SignedTransaction
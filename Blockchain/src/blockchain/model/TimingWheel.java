@@ -0,0 +1,76 @@
+package blockchain.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel: items are scheduled into the slot of their deadline tick in O(1) and come out when
+ * the wheel is advanced past it. Deadlines further ahead than one revolution wait in their slot for the
+ * later rounds. Ticks are any increasing count, e.g. sweep intervals or block heights.
+ * Thread safe, scheduling and advancing lock the wheel.
+ */
+final class TimingWheel<T> {
+    private final List<List<Entry<T>>> slots;
+    private long currentTick;
+
+    /**
+     * @param size number of slots, deadlines up to size ticks ahead are handled in one revolution
+     * @param startTick tick the wheel starts at
+     */
+    TimingWheel(int size, long startTick) {
+        slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            slots.add(new ArrayList<>());
+        }
+        currentTick = startTick;
+    }
+
+    /**
+     * @param deadlineTick the item expires when the wheel reaches this tick, at the next tick if it passed
+     */
+    synchronized void schedule(T item, long deadlineTick) {
+        long tick = Math.max(deadlineTick, currentTick + 1);
+        slots.get(slot(tick)).add(new Entry<>(item, tick));
+    }
+
+    /**
+     * Moves the wheel to the given tick.
+     * @param expired receives the items whose deadline was reached, called while the wheel is locked
+     */
+    synchronized void advance(long tick, Consumer<T> expired) {
+        // a jump of more than one revolution visits every slot once
+        long from = Math.max(currentTick + 1, tick - slots.size() + 1);
+        for (long current = from; current <= tick; current++) {
+            List<Entry<T>> slot = slots.get(slot(current));
+            int kept = 0;
+            for (Entry<T> entry : slot) {
+                if (entry.deadline <= tick) {
+                    expired.accept(entry.item);
+                } else {
+                    slot.set(kept++, entry);
+                }
+            }
+            slot.subList(kept, slot.size()).clear();
+        }
+        currentTick = Math.max(currentTick, tick);
+    }
+
+    synchronized long getCurrentTick() {
+        return currentTick;
+    }
+
+    private int slot(long tick) {
+        return (int) Math.floorMod(tick, (long) slots.size());
+    }
+
+    private static final class Entry<T> {
+        private final T item;
+        private final long deadline;
+
+        private Entry(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package blockchain.model;
+
+import java.util.List;
+
+/**
+ * Transactions of one sender that are signed together: the signature covers the Merkle root over the
+ * transaction hashes, so the whole batch is verified with one signature check. The transactions of the
+ * batch carry no signature of their own, but a BatchProof that is relayed and stored with them.
+ */
+public final class TransactionBatch {
+    private final String sender;
+    private final long keyId;
+    private final List<SignedTransaction> transactions;
+    private final String merkleRoot;
+    private byte[] signed;
+
+    /**
+     * @param transactions unsigned transactions, all sent by the sender with the key of the fingerprint
+     * @throws IllegalArgumentException if the batch is empty or a transaction has another sender or key
+     */
+    public TransactionBatch(String sender, long keyId, List<SignedTransaction> transactions) {
+        if (transactions.isEmpty()) {
+            throw new IllegalArgumentException("Empty transaction batch");
+        }
+        for (SignedTransaction transaction : transactions) {
+            if (!transaction.getSender().equals(sender) || transaction.getKeyId() != keyId) {
+                throw new IllegalArgumentException("Transaction " + transaction + " doesn't belong to the batch of "
+                        + sender);
+            }
+        }
+        this.sender = sender;
+        this.keyId = keyId;
+        this.transactions = List.copyOf(transactions);
+        this.merkleRoot = BlockTemplate.merkleRoot(this.transactions);
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public long getKeyId() {
+        return keyId;
+    }
+
+    public List<SignedTransaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * @return the signed text, the Merkle root over the transaction hashes and the key fingerprint
+     */
+    public String getContent() {
+        return content(sender, merkleRoot, keyId);
+    }
+
+    static String content(String sender, String merkleRoot, long keyId) {
+        return "batch of " + sender + " " + merkleRoot + " " + Long.toHexString(keyId);
+    }
+
+    /**
+     * Sets the signature and gives every transaction its BatchProof, so it can be verified on its own.
+     */
+    public void setSigned(byte[] signed) {
+        this.signed = signed;
+        List<BatchProof> proofs = BatchProof.of(transactions, merkleRoot, signed);
+        for (int i = 0; i < transactions.size(); i++) {
+            transactions.get(i).setBatchProof(proofs.get(i));
+        }
+    }
+
+    public byte[] getSigned() {
+        return signed;
+    }
+}
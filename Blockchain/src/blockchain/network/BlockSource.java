@@ -0,0 +1,29 @@
+package blockchain.network;
+
+import blockchain.model.Block;
+import blockchain.model.BlockHeader;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A peer that blocks can be synchronized from. Heights start with 1 for the genesis block.
+ */
+public interface BlockSource {
+
+    /**
+     * @return height of the peer's main chain
+     */
+    int getHeight() throws IOException;
+
+    /**
+     * @return up to count headers of the peer's main chain starting at fromHeight
+     */
+    List<BlockHeader> getHeaders(int fromHeight, int count) throws IOException;
+
+    /**
+     * @return up to count blocks of the peer's main chain starting at fromHeight, fewer if they don't fit
+     *         into one response
+     */
+    List<Block> getBlocks(int fromHeight, int count) throws IOException;
+}
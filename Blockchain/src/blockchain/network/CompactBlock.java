@@ -0,0 +1,74 @@
+package blockchain.network;
+
+import blockchain.model.BlockHeader;
+import blockchain.model.SignedTransaction;
+import blockchain.security.HashUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Block announcement with the header and a 6 byte short id per transaction instead of the transactions.
+ * The receiver rebuilds the block from its mempool and requests only the transactions it doesn't know.
+ * Short ids are salted with the block hash, so a collision in one block doesn't repeat in the next.
+ */
+class CompactBlock {
+    static final int SHORT_ID_BYTES = 6;
+
+    private final BlockHeader header;
+    private final long[] shortIds;
+    private final SignedTransaction[] transactions;
+    private boolean fullyRequested;
+
+    CompactBlock(BlockHeader header, long[] shortIds) {
+        this.header = header;
+        this.shortIds = shortIds;
+        this.transactions = new SignedTransaction[shortIds.length];
+    }
+
+    static long shortId(String blockHash, String transactionHash) {
+        byte[] digest = HashUtil.sha256().digest((blockHash + transactionHash).getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(digest).getLong() >>> (Long.SIZE - 8 * SHORT_ID_BYTES);
+    }
+
+    BlockHeader getHeader() {
+        return header;
+    }
+
+    long[] getShortIds() {
+        return shortIds;
+    }
+
+    SignedTransaction[] getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * @return indexes of the transactions that are still unknown
+     */
+    List<Integer> missing() {
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < transactions.length; i++) {
+            if (transactions[i] == null) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Forgets all transactions matched from the mempool, used after a short id collision.
+     * @return false if that was already done once
+     */
+    boolean requestAll() {
+        if (fullyRequested) {
+            return false;
+        }
+        fullyRequested = true;
+        Arrays.fill(transactions, null);
+        return true;
+    }
+}
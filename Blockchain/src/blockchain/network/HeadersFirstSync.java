@@ -0,0 +1,197 @@
+package blockchain.network;
+
+import blockchain.exceptions.InvalidBlockChainException;
+import blockchain.model.Block;
+import blockchain.model.BlockHeader;
+import blockchain.model.BlockchainFacade;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+import static blockchain.config.BlockchainConfig.*;
+
+/**
+ * Catches a node up with the best of its peers in two phases.
+ * First all missing headers are downloaded from the best peer in large batches. Their hash links are
+ * checked on the fly, their proofs of work in parallel by the worker pool while further batches download.
+ * Then the bodies are fetched in chunks from all peers in parallel, at most SYNC_PARALLEL_REQUESTS chunks
+ * at a time, and added strictly in chain order. A body must match its validated header, a chunk that
+ * fails is requested from the next peer.
+ */
+public class HeadersFirstSync {
+    private final BlockchainFacade blockchain;
+    private final List<BlockSource> peers;
+    private final ExecutorService workers;
+
+    public HeadersFirstSync(BlockchainFacade blockchain, List<BlockSource> peers, ExecutorService workers) {
+        this.blockchain = blockchain;
+        this.peers = List.copyOf(peers);
+        this.workers = workers;
+    }
+
+    /**
+     * @return number of blocks added to the local blockchain
+     * @throws InvalidBlockChainException if the best peer serves an invalid header chain
+     */
+    public int run() throws IOException {
+        BlockSource best = null;
+        int bestHeight = blockchain.getChainTip().getHeight();
+        for (BlockSource peer : peers) {
+            int height = peer.getHeight();
+            if (height > bestHeight) {
+                best = peer;
+                bestHeight = height;
+            }
+        }
+        if (best == null) {
+            return 0;
+        }
+        int start = findForkPoint(best);
+        List<BlockHeader> headers = downloadHeaders(best, start, bestHeight);
+        return downloadBodies(headers, start);
+    }
+
+    /**
+     * Steps back exponentially from the local tip until the peer has the same block at that height, then
+     * narrows the range between that height and the lowest one found different down to the last common block.
+     * Pruned blocks keep their headers, so the whole main chain is compared.
+     * @return height of the first block to download
+     */
+    private int findForkPoint(BlockSource best) throws IOException {
+        List<Block> chain = blockchain.getMainChain();
+        int height = chain.size();
+        int differing = height + 1;
+        int step = 1;
+        while (height > 0 && !isCommon(best, chain, height)) {
+            differing = height;
+            height = Math.max(0, height - step);
+            step *= 2;
+        }
+        while (differing - height > 1) {
+            int middle = (height + differing) >>> 1;
+            if (isCommon(best, chain, middle)) {
+                height = middle;
+            } else {
+                differing = middle;
+            }
+        }
+        return height + 1;
+    }
+
+    private static boolean isCommon(BlockSource best, List<Block> chain, int height) throws IOException {
+        List<BlockHeader> remote = best.getHeaders(height, 1);
+        return !remote.isEmpty() && remote.get(0).getHash().equals(chain.get(height - 1).getHash());
+    }
+
+    private List<BlockHeader> downloadHeaders(BlockSource best, int start, int bestHeight) throws IOException {
+        List<BlockHeader> headers = new ArrayList<>(bestHeight - start + 1);
+        List<CompletableFuture<Boolean>> checks = new ArrayList<>();
+        List<Block> local = blockchain.getMainChain();
+        String prevHash = start == 1 ? "0" : local.get(start - 2).getHash();
+        int prevQtyOfZeros = start == 1 ? 0 : local.get(start - 2).getQtyOfZeros();
+
+        for (int from = start; from <= bestHeight; from += SYNC_HEADER_BATCH) {
+            List<BlockHeader> batch = best.getHeaders(from, SYNC_HEADER_BATCH);
+            if (batch.isEmpty()) {
+                break;
+            }
+            for (BlockHeader header : batch) {
+                if (!header.getPrevBlockHash().equals(prevHash) || header.getId() != start + headers.size()
+                        || header.getStartQtyOfZeros() < prevQtyOfZeros) {
+                    throw new InvalidBlockChainException("Header chain of peer broken at height " + header.getId());
+                }
+                prevHash = header.getHash();
+                prevQtyOfZeros = header.getEndQtyOfZeros();
+                headers.add(header);
+            }
+            for (int chunk = 0; chunk < batch.size(); chunk += SYNC_VERIFY_CHUNK) {
+                List<BlockHeader> toVerify = batch.subList(chunk, Math.min(batch.size(), chunk + SYNC_VERIFY_CHUNK));
+                checks.add(CompletableFuture.supplyAsync(
+                        () -> toVerify.stream().allMatch(BlockHeader::isProofOfWorkValid), workers));
+            }
+        }
+        for (CompletableFuture<Boolean> check : checks) {
+            if (!check.join()) {
+                throw new InvalidBlockChainException("Peer sent a header with invalid proof of work");
+            }
+        }
+        return headers;
+    }
+
+    private int downloadBodies(List<BlockHeader> headers, int start) throws IOException {
+        int chunks = (headers.size() + SYNC_BODY_BATCH - 1) / SYNC_BODY_BATCH;
+        Map<Integer, CompletableFuture<List<Block>>> inFlight = new HashMap<>();
+        int nextRequest = 0;
+        int added = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            while (nextRequest < chunks && nextRequest < chunk + SYNC_PARALLEL_REQUESTS) {
+                inFlight.put(nextRequest, fetchChunk(headers, start, nextRequest));
+                nextRequest++;
+            }
+            List<Block> blocks;
+            try {
+                blocks = inFlight.remove(chunk).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException cause) {
+                    throw cause.getCause();
+                }
+                throw e;
+            }
+            for (Block block : blocks) {
+                if (blockchain.addBlock(block)) {
+                    added++;
+                } else if (!blockchain.containsBlock(block.getHash())) {
+                    // a known block may have arrived by gossip meanwhile, as a side branch for instance
+                    throw new InvalidBlockChainException("Synchronized block " + block.getId() + " was rejected");
+                }
+            }
+        }
+        return added;
+    }
+
+    private CompletableFuture<List<Block>> fetchChunk(List<BlockHeader> headers, int start, int chunk) {
+        int offset = chunk * SYNC_BODY_BATCH;
+        List<BlockHeader> expected = headers.subList(offset, Math.min(headers.size(), offset + SYNC_BODY_BATCH));
+        return CompletableFuture.supplyAsync(() -> {
+            IOException lastFailure = new IOException("No peer delivered blocks from height " + (start + offset));
+            for (int attempt = 0; attempt < peers.size(); attempt++) {
+                BlockSource peer = peers.get((chunk + attempt) % peers.size());
+                try {
+                    // a peer sends fewer blocks when they don't fit into one frame, the rest is asked for again
+                    List<Block> blocks = new ArrayList<>(expected.size());
+                    List<Block> received;
+                    do {
+                        received = peer.getBlocks(start + offset + blocks.size(), expected.size() - blocks.size());
+                        blocks.addAll(received);
+                    } while (!received.isEmpty() && blocks.size() < expected.size()
+                            && matches(blocks, expected.subList(0, blocks.size())));
+                    if (matches(blocks, expected)) {
+                        return blocks;
+                    }
+                } catch (IOException e) {
+                    lastFailure = e;
+                }
+            }
+            throw new UncheckedIOException(lastFailure);
+        }, workers);
+    }
+
+    private static boolean matches(List<Block> blocks, List<BlockHeader> expected) {
+        if (blocks.size() != expected.size()) {
+            return false;
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            if (!blocks.get(i).getHash().equals(expected.get(i).getHash())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+package blockchain.network;
+
+import blockchain.model.Block;
+import blockchain.model.BlockHeader;
+import blockchain.model.BlockchainFacade;
+
+import java.util.List;
+
+/**
+ * BlockSource serving the main chain of a blockchain in the same JVM, e.g. for a local test cluster.
+ */
+public class LocalPeerStub implements BlockSource {
+    private final BlockchainFacade blockchain;
+
+    public LocalPeerStub(BlockchainFacade blockchain) {
+        this.blockchain = blockchain;
+    }
+
+    @Override
+    public int getHeight() {
+        return blockchain.getChainTip().getHeight();
+    }
+
+    @Override
+    public List<BlockHeader> getHeaders(int fromHeight, int count) {
+        return blockchain.getHeaders(fromHeight, count);
+    }
+
+    @Override
+    public List<Block> getBlocks(int fromHeight, int count) {
+        return blockchain.getBlocks(fromHeight, count);
+    }
+}
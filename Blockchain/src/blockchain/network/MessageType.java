@@ -0,0 +1,35 @@
+package blockchain.network;
+
+/**
+ * Type byte of a frame exchanged between peer nodes.
+ */
+enum MessageType {
+    TRANSACTION,
+    BLOCK,
+    // requests carry an int request id first, the response repeats it
+    GET_STATUS,
+    STATUS,
+    GET_HEADERS,
+    HEADERS,
+    GET_BLOCKS,
+    BLOCKS,
+    // compact block relay, transactions are requested by block hash and index
+    COMPACT_BLOCK,
+    GET_BLOCK_TRANSACTIONS,
+    BLOCK_TRANSACTIONS,
+    // account and public key, sent before the first transaction referencing the key
+    KEY_REGISTRATION;
+
+    private static final MessageType[] VALUES = values();
+
+    byte code() {
+        return (byte) ordinal();
+    }
+
+    static MessageType of(byte code) {
+        if (code < 0 || code >= VALUES.length) {
+            throw new IllegalArgumentException("Unknown message type " + code);
+        }
+        return VALUES[code];
+    }
+}
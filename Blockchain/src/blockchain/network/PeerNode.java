@@ -0,0 +1,575 @@
+package blockchain.network;
+
+import blockchain.model.Block;
+import blockchain.model.BlockHeader;
+import blockchain.model.BlockchainFacade;
+import blockchain.model.SignedTransaction;
+import blockchain.security.PublicKeyRegistry;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.PublicKey;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static blockchain.config.BlockchainConfig.*;
+
+/**
+ * Gossips transactions and blocks between blockchain nodes on localhost.
+ * All sockets are served by one selector thread. Every admitted transaction and every added block of
+ * the local BlockchainFacade is sent to all connected peers, every new one received from a peer is
+ * offered to the local facade and relayed to the other peers. Messages are deduplicated by hash.
+ * Frames are a length prefix, a type byte and the payload. All frames queued since the last selector
+ * round are written with one gathering write per peer.
+ * Blocks with transactions are relayed as compact blocks, see CompactBlock.
+ * Transactions reference the sender's key by fingerprint, so a new peer first gets all key registrations
+ * and new registrations are gossiped before the transactions using them. A registration that isn't
+ * signed by its key disconnects the peer.
+ * Every connected peer can also be used as a BlockSource for synchronization, its requests and
+ * responses are matched by a request id.
+ */
+public class PeerNode implements Closeable {
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    private final BlockchainFacade blockchain;
+    private final int port;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ConcurrentLinkedQueue<Outbound> outbox = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<InetSocketAddress> pendingConnects = new ConcurrentLinkedQueue<>();
+    private final RecentHashes seen = new RecentHashes(SEEN_HASHES_CAPACITY);
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<byte[]>> pendingRequests = new ConcurrentHashMap<>();
+    private final List<BlockSource> peerSources = new CopyOnWriteArrayList<>();
+    /** blocks sent as compact blocks, peers may request their transactions */
+    private final Map<String, Block> relayedBlocks = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Block> eldest) {
+            return size() > RELAYED_BLOCKS_CAPACITY;
+        }
+    });
+    /** compact blocks waiting for missing transactions, selector thread only */
+    private final Map<String, CompactBlock> partials = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompactBlock> eldest) {
+            return size() > RELAYED_BLOCKS_CAPACITY;
+        }
+    };
+    private final List<Connection> connections = new ArrayList<>();
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+    /** peer whose frame is being handled, so it doesn't get its own message back */
+    private Connection currentOrigin;
+
+    // statistics, written by the selector thread only
+    private volatile int peers;
+    private volatile long framesSent;
+    private volatile long framesReceived;
+    private volatile long bytesSent;
+    private volatile long bytesReceived;
+    private volatile long blocksReceived;
+    private volatile long blockLatencyTotalMillis;
+    private volatile long blockLatencyMaxMillis;
+    private volatile long compactBlocksReceived;
+    private volatile long transactionsRequested;
+    private volatile long keyConflicts;
+
+    public PeerNode(BlockchainFacade blockchain, int port) throws IOException {
+        this.blockchain = blockchain;
+        this.port = port;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        selectorThread = new Thread(this::selectLoop, "peer-node-" + port);
+        selectorThread.setDaemon(true);
+        blockchain.getKeyRegistry().addRegistrationListener(this::broadcast);
+        blockchain.addTransactionListener(this::broadcast);
+        blockchain.addBlockListener(this::broadcast);
+    }
+
+    public void start() {
+        selectorThread.start();
+    }
+
+    /**
+     * Connects asynchronously to the node listening on the given localhost port.
+     */
+    public void connect(int peerPort) {
+        pendingConnects.offer(new InetSocketAddress(InetAddress.getLoopbackAddress(), peerPort));
+        selector.wakeup();
+    }
+
+    public void broadcast(String account, PublicKey key) {
+        byte[] proof = blockchain.getKeyRegistry().getProof(account);
+        if (proof != null) {
+            enqueue(MessageType.KEY_REGISTRATION, WireFormat.encodeKeyRegistration(account, key, proof));
+        }
+    }
+
+    public void broadcast(SignedTransaction transaction) {
+        if (seen.add(transaction.getHash())) {
+            enqueue(MessageType.TRANSACTION, WireFormat.encode(transaction));
+        }
+    }
+
+    public void broadcast(Block block) {
+        if (!seen.add(block.getHash())) {
+            return;
+        }
+        if (block.getTransactions().isEmpty()) {
+            enqueue(MessageType.BLOCK, WireFormat.encode(block));
+        } else {
+            relayedBlocks.put(block.getHash(), block);
+            enqueue(MessageType.COMPACT_BLOCK, WireFormat.encodeCompact(block));
+        }
+    }
+
+    /**
+     * @return the currently connected peers as sources for HeadersFirstSync
+     */
+    public List<BlockSource> getPeerSources() {
+        return List.copyOf(peerSources);
+    }
+
+    /**
+     * Waits until at least the given number of peers is connected or the timeout elapsed.
+     * @return true if enough peers are connected
+     */
+    public boolean awaitPeers(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (peerSources.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        return peerSources.size() >= count;
+    }
+
+    /**
+     * @return one line with frame and byte counters and the block propagation latency measured
+     * from the block timestamp to its arrival here
+     */
+    public String getStatistics() {
+        long blocks = blocksReceived;
+        return String.format("node %d: %d peers, sent %d frames / %d bytes, received %d frames / %d bytes, "
+                        + "%d blocks received (%d compact, %d transactions requested), "
+                        + "%d conflicting key registrations, propagation latency avg %d ms, max %d ms",
+                port, peers, framesSent, bytesSent, framesReceived, bytesReceived,
+                blocks, compactBlocksReceived, transactionsRequested, keyConflicts,
+                blocks == 0 ? 0 : blockLatencyTotalMillis / blocks, blockLatencyMaxMillis);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Connection connection : connections) {
+            connection.channel.close();
+        }
+        server.close();
+        selector.close();
+    }
+
+    private void enqueue(MessageType type, byte[] payload) {
+        boolean fromSelector = Thread.currentThread() == selectorThread;
+        outbox.offer(new Outbound(frame(type, payload), fromSelector ? currentOrigin : null, null));
+        if (!fromSelector) {
+            selector.wakeup();
+        }
+    }
+
+    private static ByteBuffer frame(MessageType type, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + 1 + payload.length);
+        frame.putInt(1 + payload.length).put(type.code()).put(payload).flip();
+        return frame.asReadOnlyBuffer();
+    }
+
+    private void selectLoop() {
+        while (running) {
+            try {
+                selector.select();
+                openPendingConnections();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+                distributeOutbox();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Peer node " + port + " selector failed\n" + e.getMessage());
+            }
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                SocketChannel channel = server.accept();
+                if (channel != null) {
+                    register(channel, true);
+                }
+            } else if (key.isConnectable()) {
+                connection.channel.finishConnect();
+                connection.connected = true;
+                peerSources.add(connection.source);
+                key.interestOps(SelectionKey.OP_READ);
+            } else {
+                if (key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            }
+        } catch (IOException e) {
+            if (connection != null) {
+                disconnect(connection, e);
+            }
+        } catch (RuntimeException e) {
+            // a malformed frame, e.g. cut short or with an unknown type, drops only the peer that sent it
+            if (connection != null) {
+                disconnect(connection, new IOException("Malformed frame: " + e, e));
+            }
+        }
+    }
+
+    private void openPendingConnections() {
+        InetSocketAddress address;
+        while ((address = pendingConnects.poll()) != null) {
+            try {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                boolean connected = channel.connect(address);
+                register(channel, connected);
+            } catch (IOException e) {
+                System.err.println("Cannot connect to peer " + address + "\n" + e.getMessage());
+            }
+        }
+    }
+
+    private void register(SocketChannel channel, boolean connected) throws IOException {
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.connected = connected;
+        connection.key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+        PublicKeyRegistry registry = blockchain.getKeyRegistry();
+        registry.forEach((account, key) -> {
+            byte[] proof = registry.getProof(account);
+            if (proof != null) {
+                connection.writeQueue.add(frame(MessageType.KEY_REGISTRATION,
+                        WireFormat.encodeKeyRegistration(account, key, proof)));
+            }
+        });
+        connections.add(connection);
+        peers = connections.size();
+        if (connected) {
+            peerSources.add(connection.source);
+        }
+    }
+
+    private void disconnect(Connection connection, IOException cause) {
+        connections.remove(connection);
+        peerSources.remove(connection.source);
+        peers = connections.size();
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // already broken
+        }
+        if (!(cause instanceof EOFException)) {
+            System.err.println("Peer disconnected from node " + port + ": " + cause.getMessage());
+        }
+    }
+
+    /**
+     * Appends all frames queued since the last round to the write queues and writes them in one go.
+     */
+    private void distributeOutbox() {
+        Outbound message;
+        while ((message = outbox.poll()) != null) {
+            for (Connection connection : connections) {
+                if (connection != message.origin && (message.target == null || connection == message.target)) {
+                    connection.writeQueue.add(message.frame.duplicate());
+                    framesSent++;
+                }
+            }
+        }
+        for (Connection connection : new ArrayList<>(connections)) {
+            try {
+                connection.flush();
+            } catch (IOException e) {
+                disconnect(connection, e);
+            }
+        }
+    }
+
+    private void handle(Connection origin, MessageType type, byte[] payload) throws IOException {
+        currentOrigin = origin;
+        try {
+            if (type == MessageType.KEY_REGISTRATION) {
+                if (!WireFormat.decodeKeyRegistration(payload, blockchain.getKeyRegistry())) {
+                    keyConflicts++;
+                }
+            } else if (type == MessageType.TRANSACTION) {
+                SignedTransaction transaction = WireFormat.decodeTransaction(payload);
+                if (!seen.contains(transaction.getHash())) {
+                    blockchain.offerTransaction(transaction);
+                    seen.add(transaction.getHash());
+                }
+            } else if (type == MessageType.BLOCK) {
+                acceptBlock(WireFormat.decodeBlock(payload));
+            } else if (type == MessageType.COMPACT_BLOCK) {
+                reconstruct(origin, WireFormat.decodeCompact(payload));
+            } else if (type == MessageType.GET_BLOCK_TRANSACTIONS) {
+                List<Integer> indexes = new ArrayList<>();
+                Block block = relayedBlocks.get(WireFormat.decodeTransactionRequest(payload, indexes));
+                if (block != null) {
+                    indexes.removeIf(index -> index < 0 || index >= block.getTransactions().size());
+                    origin.writeQueue.add(frame(MessageType.BLOCK_TRANSACTIONS,
+                            WireFormat.encodeBlockTransactions(block, indexes)));
+                    framesSent++;
+                }
+            } else if (type == MessageType.BLOCK_TRANSACTIONS) {
+                CompactBlock compact = WireFormat.decodeBlockTransactions(payload, partials);
+                if (compact != null) {
+                    complete(origin, compact);
+                }
+            } else if (type == MessageType.STATUS || type == MessageType.HEADERS || type == MessageType.BLOCKS) {
+                CompletableFuture<byte[]> response = pendingRequests.get(ByteBuffer.wrap(payload).getInt());
+                if (response != null) {
+                    response.complete(payload);
+                }
+            } else {
+                serve(origin, type, ByteBuffer.wrap(payload));
+            }
+        } finally {
+            currentOrigin = null;
+        }
+    }
+
+    private void acceptBlock(Block block) {
+        if (!seen.contains(block.getHash())) {
+            if (blockchain.addBlock(block)) {
+                recordLatency(block);
+            }
+            seen.add(block.getHash());
+        }
+    }
+
+    /**
+     * Matches the short ids against the local mempool and requests the unknown transactions.
+     */
+    private void reconstruct(Connection origin, CompactBlock compact) {
+        String hash = compact.getHeader().getHash();
+        if (seen.contains(hash) || partials.containsKey(hash)) {
+            return;
+        }
+        compactBlocksReceived++;
+        Map<Long, SignedTransaction> byShortId = new HashMap<>();
+        for (SignedTransaction transaction : blockchain.getPendingTransactions()) {
+            byShortId.put(CompactBlock.shortId(hash, transaction.getHash()), transaction);
+        }
+        long[] shortIds = compact.getShortIds();
+        for (int i = 0; i < shortIds.length; i++) {
+            compact.getTransactions()[i] = byShortId.get(shortIds[i]);
+        }
+        complete(origin, compact);
+    }
+
+    /**
+     * Adds the block if all transactions are known, otherwise requests the missing ones from the origin.
+     * If the Merkle root doesn't match, a short id collided and all transactions are requested once.
+     */
+    private void complete(Connection origin, CompactBlock compact) {
+        List<Integer> missing = compact.missing();
+        if (missing.isEmpty()) {
+            Block block = Block.restore(compact.getHeader(), Arrays.asList(compact.getTransactions()));
+            if (block.isValid() || !compact.requestAll()) {
+                acceptBlock(block);
+                return;
+            }
+            missing = compact.missing();
+        }
+        partials.put(compact.getHeader().getHash(), compact);
+        origin.writeQueue.add(frame(MessageType.GET_BLOCK_TRANSACTIONS,
+                WireFormat.encodeTransactionRequest(compact.getHeader().getHash(), missing)));
+        framesSent++;
+        transactionsRequested += missing.size();
+    }
+
+    /**
+     * Answers a synchronization request of a peer directly on its connection.
+     */
+    private void serve(Connection origin, MessageType type, ByteBuffer request) {
+        int requestId = request.getInt();
+        byte[] response;
+        if (type == MessageType.GET_STATUS) {
+            response = ByteBuffer.allocate(2 * Integer.BYTES)
+                    .putInt(requestId).putInt(blockchain.getChainTip().getHeight()).array();
+            origin.writeQueue.add(frame(MessageType.STATUS, response));
+        } else if (type == MessageType.GET_HEADERS) {
+            List<BlockHeader> headers = blockchain.getHeaders(request.getInt(),
+                    Math.min(request.getInt(), SYNC_HEADER_BATCH));
+            response = WireFormat.encodeHeaders(requestId, headers);
+            origin.writeQueue.add(frame(MessageType.HEADERS, response));
+        } else {
+            List<Block> blocks = blockchain.getBlocks(request.getInt(), Math.min(request.getInt(), SYNC_BODY_BATCH));
+            // the frame holds the type byte and the payload
+            response = WireFormat.encodeBlocks(requestId, blocks, MAX_FRAME_BYTES - 1);
+            origin.writeQueue.add(frame(MessageType.BLOCKS, response));
+        }
+        framesSent++;
+    }
+
+    /**
+     * Sends a request to one peer and waits for the response, called by synchronization threads.
+     */
+    private byte[] request(Connection target, MessageType type, int... arguments) throws IOException {
+        int requestId = requestIds.incrementAndGet();
+        CompletableFuture<byte[]> response = new CompletableFuture<>();
+        pendingRequests.put(requestId, response);
+        ByteBuffer payload = ByteBuffer.allocate(Integer.BYTES * (1 + arguments.length)).putInt(requestId);
+        for (int argument : arguments) {
+            payload.putInt(argument);
+        }
+        outbox.offer(new Outbound(frame(type, payload.array()), null, target));
+        selector.wakeup();
+        try {
+            return response.get(SYNC_REQUEST_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            throw new IOException("No " + type + " response from peer", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for peer");
+        } finally {
+            pendingRequests.remove(requestId);
+        }
+    }
+
+    private void recordLatency(Block block) {
+        if (block.getTimeStamp() == 0) {
+            return; // genesis block
+        }
+        long latency = Math.max(0, System.currentTimeMillis() - block.getTimeStamp());
+        blocksReceived++;
+        blockLatencyTotalMillis += latency;
+        blockLatencyMaxMillis = Math.max(blockLatencyMaxMillis, latency);
+    }
+
+    private static class Outbound {
+        private final ByteBuffer frame;
+        private final Connection origin;
+        /** the only receiver, null to send to all peers */
+        private final Connection target;
+
+        private Outbound(ByteBuffer frame, Connection origin, Connection target) {
+            this.frame = frame;
+            this.origin = origin;
+            this.target = target;
+        }
+    }
+
+    /**
+     * BlockSource view of a connected peer.
+     */
+    private class RemoteSource implements BlockSource {
+        private final Connection connection;
+
+        private RemoteSource(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public int getHeight() throws IOException {
+            return ByteBuffer.wrap(request(connection, MessageType.GET_STATUS)).getInt(Integer.BYTES);
+        }
+
+        @Override
+        public List<BlockHeader> getHeaders(int fromHeight, int count) throws IOException {
+            return WireFormat.decodeHeaders(request(connection, MessageType.GET_HEADERS, fromHeight, count));
+        }
+
+        @Override
+        public List<Block> getBlocks(int fromHeight, int count) throws IOException {
+            return WireFormat.decodeBlocks(request(connection, MessageType.GET_BLOCKS, fromHeight, count));
+        }
+    }
+
+    private class Connection {
+        private final SocketChannel channel;
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        private final BlockSource source = new RemoteSource(this);
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        private SelectionKey key;
+        private boolean connected;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void read() throws IOException {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                throw new EOFException("Peer closed the connection");
+            }
+            bytesReceived += read;
+            readBuffer.flip();
+            int needed = 0;
+            while (readBuffer.remaining() >= Integer.BYTES) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length <= 0 || length > MAX_FRAME_BYTES) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (readBuffer.remaining() < Integer.BYTES + length) {
+                    needed = Integer.BYTES + length;
+                    break;
+                }
+                readBuffer.getInt();
+                byte type = readBuffer.get();
+                byte[] payload = new byte[length - 1];
+                readBuffer.get(payload);
+                framesReceived++;
+                handle(this, MessageType.of(type), payload);
+            }
+            readBuffer.compact();
+            if (needed > readBuffer.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(needed);
+                readBuffer.flip();
+                bigger.put(readBuffer);
+                readBuffer = bigger;
+            }
+        }
+
+        private void flush() throws IOException {
+            if (!connected || writeQueue.isEmpty()) {
+                return;
+            }
+            bytesSent += channel.write(writeQueue.toArray(new ByteBuffer[0]));
+            while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+                writeQueue.poll();
+            }
+            key.interestOps(writeQueue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+}
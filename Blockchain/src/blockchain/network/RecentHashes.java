@@ -0,0 +1,32 @@
+package blockchain.network;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded set of the most recently seen message hashes, used to gossip every transaction and block
+ * only once. The oldest hash is forgotten when the capacity is exceeded.
+ */
+class RecentHashes {
+    private final Map<String, Boolean> hashes;
+
+    RecentHashes(int capacity) {
+        hashes = new LinkedHashMap<>(capacity * 4 / 3 + 1) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return true if the hash wasn't seen before
+     */
+    synchronized boolean add(String hash) {
+        return hashes.put(hash, Boolean.TRUE) == null;
+    }
+
+    synchronized boolean contains(String hash) {
+        return hashes.containsKey(hash);
+    }
+}
@@ -0,0 +1,348 @@
+package blockchain.network;
+
+import blockchain.model.BatchProof;
+import blockchain.model.Block;
+import blockchain.model.BlockHeader;
+import blockchain.model.SignedTransaction;
+
+import blockchain.exceptions.BlockChainSecurityException;
+import blockchain.security.PublicKeyRegistry;
+import blockchain.security.RSASignerAndValidator;
+
+import java.io.*;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary encoding of the gossiped transactions and blocks. Transactions carry the fingerprint of the
+ * sender's key only, the keys are sent X.509 encoded once per account in key registrations, together with
+ * the registration signed by the key. Transactions of a batch carry their BatchProof instead of a signature.
+ */
+class WireFormat {
+    // smallest encodings of the records, with empty strings and byte arrays
+    private static final int MIN_HEADER_BYTES = 4 * Long.BYTES + Integer.BYTES + 3 * Short.BYTES + 2;
+    private static final int MIN_BLOCK_BYTES = MIN_HEADER_BYTES + Integer.BYTES;
+    private static final int MIN_TRANSACTION_BYTES = 2 * Long.BYTES + Integer.BYTES + 3 * Short.BYTES + 1;
+    private static final int SHORT_ID_BYTES = Short.BYTES + Integer.BYTES;
+
+    private WireFormat() {
+        // prevent instances
+    }
+
+    static byte[] encode(SignedTransaction transaction) {
+        return write(out -> writeTransaction(out, transaction));
+    }
+
+    /**
+     * @param proof the registration signed with the private key of the key, see PublicKeyRegistry
+     */
+    static byte[] encodeKeyRegistration(String account, PublicKey key, byte[] proof) {
+        return write(out -> {
+            out.writeUTF(account);
+            writeBytes(out, key.getEncoded());
+            writeBytes(out, proof);
+        });
+    }
+
+    /**
+     * Registers the received key for the account.
+     * @return false if the account is already bound to another key with the same fingerprint
+     * @throws IOException if the key is invalid, the account isn't derived from it or the registration
+     *         isn't signed by it
+     */
+    static boolean decodeKeyRegistration(byte[] payload, PublicKeyRegistry registry) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String account = in.readUTF();
+        PublicKey key;
+        try {
+            key = PublicKeyRegistry.decode(readBytes(in));
+        } catch (BlockChainSecurityException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        byte[] proof = readBytes(in);
+        if (!RSASignerAndValidator.isValidRegistration(account, key, proof)) {
+            throw new IOException("Registration of " + account + " isn't signed by its key");
+        }
+        if (!account.equals(PublicKeyRegistry.account(PublicKeyRegistry.owner(account), key))) {
+            throw new IOException("Account " + account + " isn't derived from its key");
+        }
+        try {
+            registry.register(account, key, proof);
+            return true;
+        } catch (BlockChainSecurityException e) {
+            return false;
+        }
+    }
+
+    static byte[] encode(Block block) {
+        return write(out -> writeBlock(out, block));
+    }
+
+    static byte[] encodeHeaders(int requestId, List<BlockHeader> headers) {
+        return write(out -> {
+            out.writeInt(requestId);
+            out.writeInt(headers.size());
+            for (BlockHeader header : headers) {
+                writeHeader(out, header);
+            }
+        });
+    }
+
+    /**
+     * Encodes the longest prefix of the blocks that fits into the payload size, at least the first block.
+     * @param maxBytes largest payload, the receiver asks for the remaining blocks again
+     */
+    static byte[] encodeBlocks(int requestId, List<Block> blocks, int maxBytes) {
+        List<byte[]> encoded = new ArrayList<>(blocks.size());
+        int size = 2 * Integer.BYTES;
+        for (Block block : blocks) {
+            byte[] bytes = write(out -> writeBlock(out, block));
+            if (!encoded.isEmpty() && size + bytes.length > maxBytes) {
+                break;
+            }
+            encoded.add(bytes);
+            size += bytes.length;
+        }
+        return write(out -> {
+            out.writeInt(requestId);
+            out.writeInt(encoded.size());
+            for (byte[] bytes : encoded) {
+                out.write(bytes);
+            }
+        });
+    }
+
+    /**
+     * @param payload response payload, starting with the request id
+     */
+    static List<BlockHeader> decodeHeaders(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        in.readInt();
+        int count = readCount(in, MIN_HEADER_BYTES);
+        List<BlockHeader> headers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            headers.add(readHeader(in));
+        }
+        return headers;
+    }
+
+    /**
+     * @param payload response payload, starting with the request id
+     */
+    static List<Block> decodeBlocks(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        in.readInt();
+        int count = readCount(in, MIN_BLOCK_BYTES);
+        List<Block> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            blocks.add(readBlock(in));
+        }
+        return blocks;
+    }
+
+    static byte[] encodeCompact(Block block) {
+        return write(out -> {
+            writeHeader(out, block.getHeader());
+            out.writeInt(block.getTransactions().size());
+            for (SignedTransaction transaction : block.getTransactions()) {
+                long shortId = CompactBlock.shortId(block.getHash(), transaction.getHash());
+                out.writeShort((int) (shortId >>> Integer.SIZE));
+                out.writeInt((int) shortId);
+            }
+        });
+    }
+
+    static CompactBlock decodeCompact(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        BlockHeader header = readHeader(in);
+        long[] shortIds = new long[readCount(in, SHORT_ID_BYTES)];
+        for (int i = 0; i < shortIds.length; i++) {
+            shortIds[i] = ((long) in.readUnsignedShort() << Integer.SIZE) | (in.readInt() & 0xFFFFFFFFL);
+        }
+        return new CompactBlock(header, shortIds);
+    }
+
+    static byte[] encodeTransactionRequest(String blockHash, List<Integer> indexes) {
+        return write(out -> {
+            out.writeUTF(blockHash);
+            out.writeInt(indexes.size());
+            for (int index : indexes) {
+                out.writeInt(index);
+            }
+        });
+    }
+
+    /**
+     * @param indexes receives the requested transaction indexes
+     * @return hash of the block the transactions are requested for
+     */
+    static String decodeTransactionRequest(byte[] payload, List<Integer> indexes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String blockHash = in.readUTF();
+        int count = readCount(in, Integer.BYTES);
+        for (int i = 0; i < count; i++) {
+            indexes.add(in.readInt());
+        }
+        return blockHash;
+    }
+
+    static byte[] encodeBlockTransactions(Block block, List<Integer> indexes) {
+        return write(out -> {
+            out.writeUTF(block.getHash());
+            out.writeInt(indexes.size());
+            for (int index : indexes) {
+                out.writeInt(index);
+                writeTransaction(out, block.getTransactions().get(index));
+            }
+        });
+    }
+
+    /**
+     * Fills the transactions of the response into the compact block waiting for them.
+     * @param partials compact blocks waiting for transactions, by block hash
+     * @return the filled compact block, null if none was waiting
+     */
+    static CompactBlock decodeBlockTransactions(byte[] payload, Map<String, CompactBlock> partials)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        CompactBlock compact = partials.remove(in.readUTF());
+        if (compact == null) {
+            return null;
+        }
+        int count = readCount(in, Integer.BYTES + MIN_TRANSACTION_BYTES);
+        for (int i = 0; i < count; i++) {
+            int index = in.readInt();
+            SignedTransaction transaction = readTransaction(in);
+            if (index >= 0 && index < compact.getTransactions().length) {
+                compact.getTransactions()[index] = transaction;
+            }
+        }
+        return compact;
+    }
+
+    static void writeBlock(DataOutput out, Block block) throws IOException {
+        writeHeader(out, block.getHeader());
+        out.writeInt(block.getTransactions().size());
+        for (SignedTransaction transaction : block.getTransactions()) {
+            writeTransaction(out, transaction);
+        }
+    }
+
+    static SignedTransaction decodeTransaction(byte[] payload) throws IOException {
+        return readTransaction(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    static Block decodeBlock(byte[] payload) throws IOException {
+        return readBlock(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    static Block readBlock(DataInputStream in) throws IOException {
+        BlockHeader header = readHeader(in);
+        int count = readCount(in, MIN_TRANSACTION_BYTES);
+        List<SignedTransaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            transactions.add(readTransaction(in));
+        }
+        return Block.restore(header, transactions);
+    }
+
+    static void writeHeader(DataOutput out, BlockHeader header) throws IOException {
+        out.writeLong(header.getId());
+        out.writeLong(header.getTimeStamp());
+        out.writeUTF(header.getPrevBlockHash());
+        out.writeUTF(header.getMerkleRoot());
+        out.writeInt(header.getMagicNumber());
+        out.writeUTF(header.getHash());
+        out.writeByte(header.getStartQtyOfZeros());
+        out.writeByte(header.getEndQtyOfZeros());
+        out.writeLong(header.getMinerId());
+        out.writeLong(header.getGeneratedHashTime());
+    }
+
+    static BlockHeader readHeader(DataInput in) throws IOException {
+        return new BlockHeader(in.readLong(), in.readLong(), in.readUTF(), in.readUTF(), in.readInt(),
+                in.readUTF(), in.readByte(), in.readByte(), in.readLong(), in.readLong());
+    }
+
+    static void writeTransaction(DataOutput out, SignedTransaction transaction) throws IOException {
+        out.writeUTF(transaction.getSender());
+        out.writeInt(transaction.getAmount());
+        out.writeUTF(transaction.getReceiver());
+        out.writeLong(transaction.getKeyId());
+        out.writeLong(transaction.getNonce());
+        writeBytes(out, transaction.getSigned() == null ? new byte[0] : transaction.getSigned());
+        BatchProof proof = transaction.getBatchProof();
+        out.writeBoolean(proof != null);
+        if (proof != null) {
+            out.writeUTF(proof.getBatchRoot());
+            writeBytes(out, proof.getSigned());
+            out.writeInt(proof.getIndex());
+            out.writeByte(proof.getPath().size());
+            for (String hash : proof.getPath()) {
+                out.writeUTF(hash);
+            }
+        }
+    }
+
+    static SignedTransaction readTransaction(DataInput in) throws IOException {
+        String sender = in.readUTF();
+        int amount = in.readInt();
+        String receiver = in.readUTF();
+        long keyId = in.readLong();
+        SignedTransaction transaction = new SignedTransaction(sender, amount, receiver, keyId, in.readLong());
+        byte[] signed = readBytes(in);
+        transaction.setSigned(signed.length == 0 ? null : signed);
+        if (in.readBoolean()) {
+            String batchRoot = in.readUTF();
+            byte[] batchSigned = readBytes(in);
+            int index = in.readInt();
+            List<String> path = new ArrayList<>();
+            for (int i = in.readUnsignedByte(); i > 0; i--) {
+                path.add(in.readUTF());
+            }
+            transaction.setBatchProof(new BatchProof(batchRoot, batchSigned, index, path));
+        }
+        return transaction;
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads the number of records that follow, before anything is allocated for them.
+     * @param minBytes smallest encoding of one record
+     * @throws IOException if that many records can't fit into the rest of the payload
+     */
+    private static int readCount(DataInputStream in, int minBytes) throws IOException {
+        int count = in.readInt();
+        // the stream reads a byte array, so available() is exactly the rest of the payload
+        if (count < 0 || count > in.available() / minBytes) {
+            throw new IOException("Invalid count of " + count + " records for the rest of the payload");
+        }
+        return count;
+    }
+
+    private static byte[] write(Writer writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // cannot happen for an in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
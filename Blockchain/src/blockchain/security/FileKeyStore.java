@@ -0,0 +1,145 @@
+package blockchain.security;
+
+import blockchain.exceptions.BlockChainSecurityException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.*;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static blockchain.config.BlockchainConfig.PRIVATE_KEY_SUFFIX;
+import static blockchain.config.BlockchainConfig.PUBLIC_KEY_SUFFIX;
+
+/**
+ * Key pairs of the accounts, stored as DER files: the private key PKCS#8 encoded in {@code <name>_rsa},
+ * the public key X.509 encoded in {@code <name>_rsa.pub}. A pair is loaded on first use and cached.
+ * Missing pairs are generated and stored, the private key file is created readable by the owner only.
+ * The text files written by earlier versions hold no usable key, they are replaced as well. Any other key
+ * that can't be read is an error, it is never replaced.
+ */
+public class FileKeyStore {
+    /** earlier versions stored the toString() of the keys, e.g. "Sun RSA public key, 2048 bits" */
+    private static final byte[] LEGACY_TEXT_PREFIX = "Sun".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path directory;
+    private final int keyLength;
+    private final Map<String, KeyPair> keyPairs = new ConcurrentHashMap<>();
+
+    public FileKeyStore(Path directory, int keyLength) {
+        this.directory = directory;
+        this.keyLength = keyLength;
+    }
+
+    /**
+     * @param name account name
+     * @return the stored key pair, generated if there is none yet
+     * @throws BlockChainSecurityException if the stored pair can't be read or a generated pair can't be stored
+     */
+    public KeyPair get(String name) {
+        return keyPairs.computeIfAbsent(name, this::loadOrGenerate);
+    }
+
+    /**
+     * Loads the key pairs of all accounts, missing pairs are generated in parallel.
+     * @return the key pairs in the order of the names
+     */
+    public List<KeyPair> getAll(List<String> names) {
+        names.parallelStream().forEach(this::get);
+        return names.stream().map(this::get).toList();
+    }
+
+    private KeyPair loadOrGenerate(String name) {
+        Path privateKeyPath = directory.resolve(name + PRIVATE_KEY_SUFFIX);
+        Path publicKeyPath = directory.resolve(name + PUBLIC_KEY_SUFFIX);
+        try {
+            byte[] privateKey = read(privateKeyPath);
+            byte[] publicKey = read(publicKeyPath);
+            if (privateKey != null) {
+                return load(privateKey, publicKey, publicKeyPath);
+            }
+            if (publicKey != null) {
+                throw new BlockChainSecurityException("Public key of " + name + " has no private key in "
+                        + privateKeyPath);
+            }
+        } catch (IOException | NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new BlockChainSecurityException("Cannot load key pair of " + name + ": " + e.getMessage());
+        }
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(keyLength);
+            KeyPair keyPair = generator.generateKeyPair();
+            write(privateKeyPath, keyPair.getPrivate().getEncoded(), true);
+            write(publicKeyPath, keyPair.getPublic().getEncoded(), false);
+            return keyPair;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new BlockChainSecurityException("Cannot create key pair of " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param publicKey null if the public key file is missing, e.g. after a crash between writing the two files,
+     *                  it is derived from the private key and stored again
+     */
+    private static KeyPair load(byte[] privateKey, byte[] publicKey, Path publicKeyPath)
+            throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        PrivateKey decodedPrivateKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(privateKey));
+        if (publicKey != null) {
+            return new KeyPair(keyFactory.generatePublic(new X509EncodedKeySpec(publicKey)), decodedPrivateKey);
+        }
+        if (!(decodedPrivateKey instanceof RSAPrivateCrtKey crtKey)) {
+            throw new InvalidKeySpecException("Missing public key " + publicKeyPath);
+        }
+        PublicKey derived = keyFactory.generatePublic(new RSAPublicKeySpec(crtKey.getModulus(),
+                crtKey.getPublicExponent()));
+        write(publicKeyPath, derived.getEncoded(), false);
+        return new KeyPair(derived, decodedPrivateKey);
+    }
+
+    /**
+     * @return the content of the key file, null if it is missing or a text file of an earlier version
+     */
+    private static byte[] read(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        byte[] content = Files.readAllBytes(path);
+        return content.length >= LEGACY_TEXT_PREFIX.length
+                && Arrays.equals(content, 0, LEGACY_TEXT_PREFIX.length, LEGACY_TEXT_PREFIX, 0, LEGACY_TEXT_PREFIX.length)
+                ? null : content;
+    }
+
+    /**
+     * Writes to a temporary file first, so a crash never leaves half a key behind. A secret is created
+     * readable by the owner only, it is never visible to others, not even while it is written.
+     */
+    private static void write(Path path, byte[] encoded, boolean secret) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        FileAttribute<?>[] attributes = secret && temporary.getFileSystem().supportedFileAttributeViews().contains("posix")
+                ? new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))}
+                : new FileAttribute<?>[0];
+        try (SeekableByteChannel channel = Files.newByteChannel(temporary,
+                EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), attributes)) {
+            ByteBuffer buffer = ByteBuffer.wrap(encoded);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,37 @@
+package blockchain.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helper class with static methods for SHA-256 hashing of block and transaction content.
+ */
+public class HashUtil {
+
+    private HashUtil() {
+        // prevent instances
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported by this JVM", e);
+        }
+    }
+
+    public static String applySha256(String input) {
+        return toHex(sha256().digest(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder hexString = new StringBuilder(bytes.length * 2);
+        for (byte elem : bytes) {
+            String hex = Integer.toHexString(0xff & elem);
+            if (hex.length() == 1) hexString.append('0');
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+}
@@ -0,0 +1,260 @@
+package blockchain.security;
+
+import blockchain.exceptions.BlockChainSecurityException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Binds every account to one public key. Transactions carry only the 64-bit fingerprint of the key,
+ * the parsed keys are kept here once. An account name ends with the fingerprint of its key, e.g.
+ * {@code Peter-3f2a9c0d1e4b5a67}, so only that key can be registered for it and a peer can't claim an
+ * account that isn't registered yet. A transaction whose key isn't bound to its sender is rejected.
+ * Every registration carries a proof, the account and key fingerprint signed with the private key being
+ * bound, so a peer can't bind a key it doesn't own.
+ * Registrations can be appended to a file, so the fingerprints in stored blocks stay resolvable.
+ */
+public class PublicKeyRegistry implements Closeable {
+    /** "PKR2" */
+    private static final int FILE_MAGIC = 0x504B5232;
+
+    private final Map<Long, PublicKey> keys = new ConcurrentHashMap<>();
+    private final Map<String, Long> accounts = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> proofs = new ConcurrentHashMap<>();
+    private final List<BiConsumer<String, PublicKey>> listeners = new CopyOnWriteArrayList<>();
+    private final DataOutputStream out;
+
+    /**
+     * Creates a registry kept in memory only.
+     */
+    public PublicKeyRegistry() {
+        this.out = null;
+    }
+
+    private PublicKeyRegistry(DataOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Loads the registrations stored in the file, new ones are appended to it.
+     */
+    public static PublicKeyRegistry open(Path file) throws IOException {
+        Map<String, byte[]> stored = new LinkedHashMap<>();
+        Map<String, byte[]> storedProofs = new HashMap<>();
+        if (!Files.exists(file) || Files.size(file) == 0) {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+                out.writeInt(FILE_MAGIC);
+            }
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Unknown format of public key registry " + file);
+            }
+            while (in.available() > 0) {
+                String account = in.readUTF();
+                byte[] encoded = readBytes(in);
+                byte[] proof = readBytes(in);
+                if (stored.putIfAbsent(account, encoded) == null) {
+                    storedProofs.put(account, proof);
+                }
+            }
+        } catch (EOFException truncated) {
+            System.err.println("Truncated registration in " + file + " dropped");
+        }
+        PublicKeyRegistry registry = new PublicKeyRegistry(new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.APPEND))));
+        stored.forEach((account, encoded) -> {
+            registry.bind(account, decode(encoded));
+            registry.proofs.put(account, storedProofs.get(account));
+        });
+        return registry;
+    }
+
+    /**
+     * Registers the key of an own account, the registration is signed with its private key.
+     * @return the fingerprint of the key, also if the account was bound to it before
+     * @throws BlockChainSecurityException if the account isn't derived from the key
+     */
+    public long register(String account, KeyPair keyPair) {
+        PublicKey key = keyPair.getPublic();
+        checkDerived(account, key);
+        if (isBoundTo(account, fingerprint(key))) {
+            return fingerprint(key);
+        }
+        return register(account, key, RSASignerAndValidator.sign(registrationContent(account, key),
+                keyPair.getPrivate()));
+    }
+
+    /**
+     * Registers a key received from a peer.
+     * @param proof signature over registrationContent() made with the private key of the key
+     * @return the fingerprint of the key, also if the account was bound to it before
+     * @throws BlockChainSecurityException if the proof is invalid, the account isn't derived from the key or
+     *         the account is bound to another key with the same fingerprint
+     */
+    public long register(String account, PublicKey key, byte[] proof) {
+        if (!RSASignerAndValidator.isValidRegistration(account, key, proof)) {
+            throw new BlockChainSecurityException("Registration of " + account + " isn't signed by its key");
+        }
+        checkDerived(account, key);
+        long keyId = fingerprint(key);
+        if (!bind(account, key)) {
+            if (accounts.get(account) != keyId) {
+                throw new BlockChainSecurityException("Account " + account + " is bound to another key");
+            }
+            return keyId; // known registration
+        }
+        proofs.put(account, proof);
+        persist(account, key, proof);
+        listeners.forEach(listener -> listener.accept(account, key));
+        return keyId;
+    }
+
+    /**
+     * @param owner name of the key, e.g. the name of its key files
+     * @return the account of the key, the owner followed by the fingerprint of the key
+     */
+    public static String account(String owner, PublicKey key) {
+        return account(owner, fingerprint(key));
+    }
+
+    /**
+     * @param keyId fingerprint of the key
+     */
+    public static String account(String owner, long keyId) {
+        return owner + "-" + String.format("%016x", keyId);
+    }
+
+    /**
+     * @return the name of the key the account is derived from, the account itself if it has no fingerprint
+     */
+    public static String owner(String account) {
+        int end = account.lastIndexOf('-');
+        return end < 0 ? account : account.substring(0, end);
+    }
+
+    /**
+     * @return the signed text of a registration, the account and the key fingerprint
+     */
+    public static String registrationContent(String account, PublicKey key) {
+        return "key of " + account + " " + Long.toHexString(fingerprint(key));
+    }
+
+    /**
+     * @return the proof of the account's registration, null if the account isn't registered
+     */
+    public byte[] getProof(String account) {
+        return proofs.get(account);
+    }
+
+    /**
+     * @return the key with the fingerprint, null if it isn't registered
+     */
+    public PublicKey resolve(long keyId) {
+        return keys.get(keyId);
+    }
+
+    /**
+     * @return true if the key with the fingerprint is the one registered for the account
+     */
+    public boolean isBoundTo(String account, long keyId) {
+        Long bound = accounts.get(account);
+        return bound != null && bound == keyId;
+    }
+
+    /**
+     * @param listener called with account and key of every new registration, not for loaded ones
+     */
+    public void addRegistrationListener(BiConsumer<String, PublicKey> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Passes every account with its registered key to the action.
+     */
+    public void forEach(BiConsumer<String, PublicKey> action) {
+        accounts.forEach((account, keyId) -> action.accept(account, keys.get(keyId)));
+    }
+
+    /**
+     * @return the first 64 bits of the SHA-256 hash of the X.509 encoded key
+     */
+    public static long fingerprint(PublicKey key) {
+        return ByteBuffer.wrap(HashUtil.sha256().digest(key.getEncoded())).getLong();
+    }
+
+    /**
+     * Parses an X.509 encoded RSA public key.
+     * @throws BlockChainSecurityException if the bytes are no valid key
+     */
+    public static PublicKey decode(byte[] encoded) {
+        try {
+            return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new BlockChainSecurityException("Invalid public key: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    private static void checkDerived(String account, PublicKey key) {
+        if (!account.equals(account(owner(account), key))) {
+            throw new BlockChainSecurityException("Account " + account + " isn't derived from its key");
+        }
+    }
+
+    /**
+     * @return true if the account wasn't bound before
+     */
+    private boolean bind(String account, PublicKey key) {
+        long keyId = fingerprint(key);
+        keys.putIfAbsent(keyId, key);
+        return accounts.putIfAbsent(account, keyId) == null;
+    }
+
+    private synchronized void persist(String account, PublicKey key, byte[] proof) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.writeUTF(account);
+            writeBytes(out, key.getEncoded());
+            writeBytes(out, proof);
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("cannot persist public key of " + account + "\n" + e.getMessage());
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
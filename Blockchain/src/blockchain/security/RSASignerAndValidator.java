@@ -1,15 +1,24 @@
 package blockchain.security;
 
 import blockchain.exceptions.BlockChainSecurityException;
+import blockchain.model.BatchProof;
 import blockchain.model.SignedTransaction;
+import blockchain.model.TransactionBatch;
 
 import java.security.*;
 
 /**
  * Helper class with static methods to sign a message with a private key and verify a received signature
- * with the public key.
+ * with the public key. Each thread reuses its Signature instance instead of looking up the provider per call.
  */
 public class RSASignerAndValidator {
+    private static final ThreadLocal<Signature> SIGNATURES = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA1withRSA");
+        } catch (NoSuchAlgorithmException e) {
+            throw new BlockChainSecurityException("SHA1withRSA not supported: " + e.getMessage());
+        }
+    });
 
     private RSASignerAndValidator() {
         // prevent instances
@@ -17,30 +26,63 @@ public class RSASignerAndValidator {
 
     public static byte[] sign(String data, PrivateKey privateKey) {
         try {
-            Signature signature = Signature.getInstance("SHA1withRSA");
+            Signature signature = SIGNATURES.get();
             signature.initSign(privateKey);
             signature.update(data.getBytes());
             return signature.sign();
-        } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
+        } catch (InvalidKeyException | SignatureException e) {
             throw new BlockChainSecurityException("Exception signing chat message: " + e.getMessage());
         }
     }
 
     /**
      * method to verify a signed transaction by a receiver regarding authenticity,
-     * The SignedTransaction object contains everything to do that (transaction that was signed - given by toString(),
-     * public key and signature).
+     * The SignedTransaction object contains the transaction that was signed - given by getContent() - and the
+     * signature, the public key is resolved from its fingerprint by the PublicKeyRegistry.
+     * A transaction of a TransactionBatch is verified by its BatchProof instead: its hash must lead up the
+     * Merkle path to the batch root and the batch signature must be valid.
      * @param signedTransaction transaction
+     * @param publicKey key registered for the fingerprint of the transaction
      * @return the verification result.
      */
-    public static boolean isValid(SignedTransaction signedTransaction) {
+    public static boolean isValid(SignedTransaction signedTransaction, PublicKey publicKey) {
+        BatchProof proof = signedTransaction.getBatchProof();
+        if (signedTransaction.getSigned() == null && proof != null) {
+            return proof.isMember(signedTransaction)
+                    && verify(proof.getContent(signedTransaction), proof.getSigned(), publicKey);
+        }
+        return verify(signedTransaction.getContent(), signedTransaction.getSigned(), publicKey);
+    }
+
+    /**
+     * Verifies all transactions of the batch with one signature check over its Merkle root.
+     * @param publicKey key registered for the fingerprint of the batch
+     */
+    public static boolean isValid(TransactionBatch batch, PublicKey publicKey) {
+        return verify(batch.getContent(), batch.getSigned(), publicKey);
+    }
+
+    /**
+     * Verifies the proof of a key registration, the registration signed with the private key being bound.
+     * @param proof signature over PublicKeyRegistry.registrationContent()
+     */
+    public static boolean isValidRegistration(String account, PublicKey publicKey, byte[] proof) {
+        return verify(PublicKeyRegistry.registrationContent(account, publicKey), proof, publicKey);
+    }
+
+    private static boolean verify(String data, byte[] signed, PublicKey publicKey) {
+        if (signed == null || publicKey == null) {
+            return false;
+        }
         try {
-            Signature signature = Signature.getInstance("SHA1withRSA");
-            signature.initVerify(signedTransaction.getPublicKey());
-            signature.update(signature.toString().getBytes());
-            return signature.verify(signedTransaction.getSigned());
-        } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
-            throw new BlockChainSecurityException("Exception signing chat message: " + e.getMessage());
+            Signature signature = SIGNATURES.get();
+            signature.initVerify(publicKey);
+            signature.update(data.getBytes());
+            return signature.verify(signed);
+        } catch (SignatureException e) {
+            return false; // malformed signature
+        } catch (InvalidKeyException e) {
+            throw new BlockChainSecurityException("Exception verifying signature: " + e.getMessage());
         }
     }
 }
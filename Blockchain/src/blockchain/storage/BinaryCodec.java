@@ -0,0 +1,364 @@
+package blockchain.storage;
+
+import blockchain.model.BatchProof;
+import blockchain.model.Block;
+import blockchain.model.BlockHeader;
+import blockchain.model.SignedTransaction;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Versioned binary encoding of blocks, transactions and the ledger for the block store and the local files.
+ * Every encoded value starts with the format version. Integers are varints, hex hashes are stored as raw
+ * bytes and public keys by their fingerprint. Lengths and counts are checked against the bytes left before
+ * anything is allocated for them.
+ * Decoding reads straight from a ByteBuffer, e.g. a slice of a segment the block store read at once, without
+ * copying the record first. Strings and byte arrays of the result are copied out of the buffer.
+ */
+public final class BinaryCodec {
+    public static final byte FORMAT_VERSION = 1;
+
+    private static final int HASH_BYTES = 32;
+    private static final byte HEX_HASH = 0;
+    private static final byte TEXT_HASH = 1;
+
+    private BinaryCodec() {
+        // prevent instances
+    }
+
+    public static byte[] encodeBlock(Block block) {
+        Output out = new Output(256 + block.getTransactions().size() * 128);
+        out.writeByte(FORMAT_VERSION);
+        BlockHeader header = block.getHeader();
+        out.writeVarLong(header.getId());
+        out.writeVarLong(header.getTimeStamp());
+        out.writeHash(header.getPrevBlockHash());
+        out.writeHash(header.getMerkleRoot());
+        out.writeVarLong(header.getMagicNumber());
+        out.writeHash(header.getHash());
+        out.writeByte(header.getStartQtyOfZeros());
+        out.writeByte(header.getEndQtyOfZeros());
+        out.writeVarLong(header.getMinerId());
+        out.writeVarLong(header.getGeneratedHashTime());
+        writeTransactions(out, block.getTransactions());
+        return out.toByteArray();
+    }
+
+    /**
+     * @param in positioned at the format version, positioned behind the block afterwards
+     */
+    public static Block decodeBlock(ByteBuffer in) throws IOException {
+        try {
+            readVersion(in);
+            BlockHeader header = new BlockHeader(readVarLong(in), readVarLong(in), readHash(in), readHash(in),
+                    (int) readVarLong(in), readHash(in), in.get(), in.get(), readVarLong(in), readVarLong(in));
+            return Block.restore(header, readTransactions(in));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Encoded block is incomplete", e);
+        }
+    }
+
+    /**
+     * Reads only the id of an encoded block, e.g. to skip blocks without decoding them.
+     * @param in positioned at the format version, the position isn't changed
+     */
+    public static long peekBlockId(ByteBuffer in) throws IOException {
+        try {
+            ByteBuffer view = in.duplicate();
+            readVersion(view);
+            return readVarLong(view);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Encoded block is incomplete", e);
+        }
+    }
+
+    /**
+     * @return bytes the transaction takes in an encoded block, without encoding it
+     */
+    public static int encodedSize(SignedTransaction transaction) {
+        int signed = transaction.getSigned() == null ? 0 : transaction.getSigned().length;
+        return stringSize(transaction.getSender()) + varLongSize(zigZag(transaction.getAmount()))
+                + stringSize(transaction.getReceiver()) + 2 * Long.BYTES + varLongSize(signed) + signed
+                + proofSize(transaction.getBatchProof());
+    }
+
+    private static int proofSize(BatchProof proof) {
+        if (proof == null) {
+            return 1;
+        }
+        int size = varLongSize(proof.getPath().size() + 1) + hashSize(proof.getBatchRoot())
+                + varLongSize(proof.getSigned().length) + proof.getSigned().length + varLongSize(proof.getIndex());
+        for (String hash : proof.getPath()) {
+            size += hashSize(hash);
+        }
+        return size;
+    }
+
+    public static byte[] encodeTransactions(List<SignedTransaction> transactions) {
+        Output out = new Output(64 + transactions.size() * 128);
+        out.writeByte(FORMAT_VERSION);
+        writeTransactions(out, transactions);
+        return out.toByteArray();
+    }
+
+    public static List<SignedTransaction> decodeTransactions(ByteBuffer in) throws IOException {
+        try {
+            readVersion(in);
+            return readTransactions(in);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Encoded transactions are incomplete", e);
+        }
+    }
+
+    public static byte[] encodeLedger(Map<String, Integer> ledger) {
+        Output out = new Output(64 + ledger.size() * 16);
+        out.writeByte(FORMAT_VERSION);
+        out.writeVarLong(ledger.size());
+        ledger.forEach((account, balance) -> {
+            out.writeString(account);
+            out.writeVarLong(zigZag(balance));
+        });
+        return out.toByteArray();
+    }
+
+    public static Map<String, Integer> decodeLedger(ByteBuffer in) throws IOException {
+        try {
+            readVersion(in);
+            int size = readLength(in);
+            Map<String, Integer> ledger = new HashMap<>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                ledger.put(readString(in), (int) unZigZag(readVarLong(in)));
+            }
+            return ledger;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Encoded ledger is incomplete", e);
+        }
+    }
+
+    private static void writeTransactions(Output out, List<SignedTransaction> transactions) {
+        out.writeVarLong(transactions.size());
+        for (SignedTransaction transaction : transactions) {
+            out.writeString(transaction.getSender());
+            out.writeVarLong(zigZag(transaction.getAmount()));
+            out.writeString(transaction.getReceiver());
+            out.writeLong(transaction.getKeyId());
+            out.writeLong(transaction.getNonce());
+            out.writeBytes(transaction.getSigned() == null ? new byte[0] : transaction.getSigned());
+            writeProof(out, transaction.getBatchProof());
+        }
+    }
+
+    /**
+     * Writes the path length plus one, 0 without a proof, then the batch root, signature, index and path.
+     */
+    private static void writeProof(Output out, BatchProof proof) {
+        if (proof == null) {
+            out.writeVarLong(0);
+            return;
+        }
+        out.writeVarLong(proof.getPath().size() + 1);
+        out.writeHash(proof.getBatchRoot());
+        out.writeBytes(proof.getSigned());
+        out.writeVarLong(proof.getIndex());
+        proof.getPath().forEach(out::writeHash);
+    }
+
+    private static BatchProof readProof(ByteBuffer in) throws IOException {
+        int pathLength = readLength(in) - 1;
+        if (pathLength < 0) {
+            return null;
+        }
+        String batchRoot = readHash(in);
+        byte[] signed = readBytes(in);
+        int index = (int) readVarLong(in);
+        List<String> path = new ArrayList<>(pathLength);
+        for (int i = 0; i < pathLength; i++) {
+            path.add(readHash(in));
+        }
+        return new BatchProof(batchRoot, signed, index, path);
+    }
+
+    private static List<SignedTransaction> readTransactions(ByteBuffer in) throws IOException {
+        int count = readLength(in);
+        List<SignedTransaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String sender = readString(in);
+            int amount = (int) unZigZag(readVarLong(in));
+            String receiver = readString(in);
+            SignedTransaction transaction = new SignedTransaction(sender, amount, receiver, in.getLong(), in.getLong());
+            byte[] signed = readBytes(in);
+            transaction.setSigned(signed.length == 0 ? null : signed);
+            transaction.setBatchProof(readProof(in));
+            transactions.add(transaction);
+        }
+        return transactions;
+    }
+
+    private static void readVersion(ByteBuffer in) throws IOException {
+        byte version = in.get();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported format version " + version);
+        }
+    }
+
+    /**
+     * Reads a length or a count, each byte or element takes at least one byte of the rest of the buffer.
+     * @throws IOException if the buffer can't hold that many
+     */
+    private static int readLength(ByteBuffer in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Length " + length + " exceeds the " + in.remaining() + " bytes left");
+        }
+        return (int) length;
+    }
+
+    private static byte[] readBytes(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = readLength(in);
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        } else {
+            value = StandardCharsets.UTF_8.decode(in.slice(in.position(), length)).toString();
+        }
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static String readHash(ByteBuffer in) throws IOException {
+        if (in.get() == TEXT_HASH) {
+            return readString(in);
+        }
+        char[] hex = new char[HASH_BYTES * 2];
+        for (int i = 0; i < HASH_BYTES; i++) {
+            int b = in.get() & 0xff;
+            hex[2 * i] = Character.forDigit(b >>> 4, 16);
+            hex[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int hashSize(String hash) {
+        return isHexHash(hash) ? 1 + HASH_BYTES : 1 + stringSize(hash);
+    }
+
+    private static boolean isHexHash(String hash) {
+        return hash.length() == HASH_BYTES * 2
+                && hash.chars().allMatch(c -> Character.digit(c, 16) >= 0 && !Character.isUpperCase(c));
+    }
+
+    private static int stringSize(String value) {
+        int length = value.getBytes(StandardCharsets.UTF_8).length;
+        return varLongSize(length) + length;
+    }
+
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Growable byte array, cheaper than a DataOutputStream over a ByteArrayOutputStream.
+     */
+    private static final class Output {
+        private byte[] buffer;
+        private int length;
+
+        private Output(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        private void ensure(int bytes) {
+            if (length + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + bytes));
+            }
+        }
+
+        private void writeByte(int value) {
+            ensure(1);
+            buffer[length++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            ensure(Long.BYTES);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[length++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void writeString(String value) {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Hex hashes of 32 bytes are stored raw, others like the "0" of the genesis block as text.
+         */
+        private void writeHash(String hash) {
+            if (!isHexHash(hash)) {
+                writeByte(TEXT_HASH);
+                writeString(hash);
+                return;
+            }
+            writeByte(HEX_HASH);
+            ensure(HASH_BYTES);
+            for (int i = 0; i < HASH_BYTES; i++) {
+                buffer[length++] = (byte) (Character.digit(hash.charAt(2 * i), 16) << 4
+                        | Character.digit(hash.charAt(2 * i + 1), 16));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package blockchain.storage;
+
+import blockchain.model.Block;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Append-only persistent storage of the blocks. Blocks are written as length prefixed BinaryCodec records
+ * into numbered segment files of a fixed number of blocks each, so a commit costs one appended record
+ * instead of rewriting the whole chain. A record of the last segment that was only partially written when
+ * the process died is cut off when the store is opened, any other damaged record fails the opening.
+ * Each segment starts with a header naming the codec of its records, new segments are written with the codec
+ * the store was opened with. Segments written before the header existed have no header and plain records.
+ * In pruning mode, closed segments whose blocks are all below the pruning height are rewritten with the
+ * headers only, the bodies can be appended to an archive store.
+ */
+public class BlockStore implements Closeable {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final int SEGMENT_MAGIC = 0x42534547; // "BSEG"
+    private static final int HEADER_LENGTH = Integer.BYTES + 1;
+    private static final int STREAM_BUFFER = 1 << 16;
+    /** format version and the varint block id */
+    private static final int ID_PREFIX_LENGTH = 1 + 10;
+
+    private final Path directory;
+    private final int blocksPerSegment;
+    private final SegmentCodec codec;
+    private SegmentCodec currentCodec;
+    private DataOutputStream out;
+    private int currentSegment;
+    private int blocksInSegment;
+    /** highest block id in each segment, decides when a segment can be pruned */
+    private final Map<Integer, Long> lastIds = new HashMap<>();
+    private final Set<Integer> prunedSegments = new HashSet<>();
+
+    public BlockStore(Path directory, int blocksPerSegment) throws IOException {
+        this(directory, blocksPerSegment, false);
+    }
+
+    /**
+     * @param compressed whether new segments are written Deflate compressed, see SegmentCodec.DEFLATE
+     */
+    public BlockStore(Path directory, int blocksPerSegment, boolean compressed) throws IOException {
+        this.directory = directory;
+        this.blocksPerSegment = blocksPerSegment;
+        this.codec = compressed ? SegmentCodec.DEFLATE : SegmentCodec.PLAIN;
+        this.currentCodec = codec;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Reads all stored blocks in chain order and positions the writer behind the last complete record.
+     * @return the stored blocks, empty for a new store
+     * @throws IOException if a record can't be read, other than an incomplete last record
+     */
+    public List<Block> loadAll() throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        List<Path> segments = listSegments();
+        for (Path segment : segments) {
+            int first = blocks.size();
+            blocksInSegment = readSegment(segment, blocks, segment == segments.get(segments.size() - 1));
+            track(segmentNumber(segment), blocks.subList(first, blocks.size()));
+        }
+        currentSegment = segments.isEmpty() ? 0 : segmentNumber(segments.get(segments.size() - 1));
+        return blocks;
+    }
+
+    /**
+     * Streams the stored blocks in store order to the visitor, reading one record at a time instead of whole
+     * segments, so memory stays bounded by the largest block however long the chain is. Side branch blocks
+     * are included, they are stored in the order they arrived. The store is only read: a record that is
+     * incomplete, e.g. still being appended by a running node, ends the walk.
+     * @param fromHeight blocks with a lower id are skipped, only the start of their record is decoded
+     */
+    public void forEach(long fromHeight, BlockVisitor visitor) throws IOException {
+        byte[] record = new byte[STREAM_BUFFER];
+        for (Path segment : listSegments()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment),
+                    STREAM_BUFFER))) {
+                SegmentCodec segmentCodec = SegmentCodec.PLAIN;
+                in.mark(HEADER_LENGTH);
+                if (Files.size(segment) >= HEADER_LENGTH && in.readInt() == SEGMENT_MAGIC) {
+                    segmentCodec = SegmentCodec.of(in.readByte());
+                } else {
+                    in.reset();
+                }
+                while (true) {
+                    int length = in.readInt();
+                    if (length < 0) {
+                        return;
+                    }
+                    if (length > record.length) {
+                        record = new byte[Math.max(length, 2 * record.length)];
+                    }
+                    in.readFully(record, 0, length);
+                    ByteBuffer stored = ByteBuffer.wrap(record, 0, length);
+                    ByteBuffer prefix = segmentCodec.decodePrefix(stored, ID_PREFIX_LENGTH);
+                    if (BinaryCodec.peekBlockId(prefix) >= fromHeight) {
+                        visitor.visit(decode(segmentCodec.decode(stored)));
+                    }
+                }
+            } catch (EOFException endOfSegment) {
+                // the next segment starts behind the last complete record
+            }
+        }
+    }
+
+    /**
+     * Appends the block and flushes it to the operating system.
+     */
+    public void append(Block block) throws IOException {
+        if (out == null || blocksInSegment >= blocksPerSegment) {
+            openNextSegment();
+        }
+        byte[] record = currentCodec.encode(encode(block));
+        out.writeInt(record.length);
+        out.write(record);
+        out.flush();
+        blocksInSegment++;
+        lastIds.merge(currentSegment, block.getId(), Math::max);
+    }
+
+    /**
+     * Positions the writer behind the last record without decoding the stored blocks, for a store that
+     * is only appended to, like an archive.
+     */
+    public void openForAppend() throws IOException {
+        List<Path> segments = listSegments();
+        if (segments.isEmpty()) {
+            return;
+        }
+        Path last = segments.get(segments.size() - 1);
+        currentSegment = segmentNumber(last);
+        blocksInSegment = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(last)))) {
+            in.skipNBytes(Files.size(last) >= HEADER_LENGTH ? HEADER_LENGTH : 0);
+            while (in.available() >= Integer.BYTES) {
+                in.skipNBytes(in.readInt());
+                blocksInSegment++;
+            }
+        } catch (EOFException truncated) {
+            throw new IOException("Truncated record in " + last + ", open the store with loadAll()", truncated);
+        }
+    }
+
+    /**
+     * Rewrites every closed segment whose blocks all have an id up to the given height with the headers only.
+     * @param height highest block id whose body may be dropped
+     * @param archive receives the dropped bodies, null to discard them
+     */
+    public void prune(long height, BlockStore archive) throws IOException {
+        for (Path segment : listSegments()) {
+            int number = segmentNumber(segment);
+            if (number >= currentSegment || prunedSegments.contains(number)
+                    || lastIds.getOrDefault(number, Long.MAX_VALUE) > height) {
+                continue;
+            }
+            SegmentCodec appending = currentCodec;
+            List<Block> blocks = new ArrayList<>();
+            readSegment(segment, blocks, false);
+            SegmentCodec segmentCodec = currentCodec;
+            currentCodec = appending;
+
+            Path temporary = segment.resolveSibling(segment.getFileName() + ".tmp");
+            try (DataOutputStream pruned = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                pruned.writeInt(SEGMENT_MAGIC);
+                pruned.writeByte(segmentCodec.code());
+                for (Block block : blocks) {
+                    if (archive != null && !block.isPruned() && !block.getTransactions().isEmpty()) {
+                        archive.append(block);
+                    }
+                    byte[] record = segmentCodec.encode(encode(block.withoutBody()));
+                    pruned.writeInt(record.length);
+                    pruned.write(record);
+                }
+            }
+            Files.move(temporary, segment, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            prunedSegments.add(number);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param fileName name of a file kept next to the segments, e.g. an index derived from the blocks
+     * @return path of the file in the store directory
+     */
+    public Path resolve(String fileName) {
+        return directory.resolve(fileName);
+    }
+
+    /**
+     * Removes all segments, the next append starts a new chain.
+     */
+    public void clear() throws IOException {
+        close();
+        for (Path segment : listSegments()) {
+            Files.delete(segment);
+        }
+        currentSegment = 0;
+        blocksInSegment = 0;
+        lastIds.clear();
+        prunedSegments.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private void openNextSegment() throws IOException {
+        close();
+        if (blocksInSegment >= blocksPerSegment || currentSegment == 0) {
+            currentSegment++;
+            blocksInSegment = 0;
+        }
+        Path segment = segmentPath(currentSegment);
+        if (!Files.exists(segment) || Files.size(segment) == 0) {
+            try (DataOutputStream header = new DataOutputStream(Files.newOutputStream(segment))) {
+                header.writeInt(SEGMENT_MAGIC);
+                header.writeByte(codec.code());
+            }
+            currentCodec = codec;
+        }
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segment,
+                StandardOpenOption.APPEND)));
+    }
+
+    /**
+     * Reads the segment into a heap buffer with one bulk read and decodes the records from slices of it,
+     * compressed records are inflated into a copy. The segment isn't memory mapped, as a mapped file can't be
+     * truncated or replaced on every platform. Remembers the codec of the segment, appends continue with it.
+     * @param last whether it is the segment appended to, only there a crash can leave an incomplete record
+     * @throws IOException if a record is damaged, other than an incomplete final record of the last segment
+     */
+    private int readSegment(Path segment, List<Block> blocks, boolean last) throws IOException {
+        int count = 0;
+        int validLength = 0;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+                // read until the buffer is full
+            }
+            buffer.flip();
+            currentCodec = SegmentCodec.PLAIN;
+            if (buffer.remaining() >= HEADER_LENGTH && buffer.getInt(0) == SEGMENT_MAGIC) {
+                currentCodec = SegmentCodec.of(buffer.get(Integer.BYTES));
+                validLength = HEADER_LENGTH;
+            }
+            buffer.position(validLength);
+            while (buffer.remaining() >= Integer.BYTES) {
+                int length = buffer.getInt();
+                if (length < 0) {
+                    throw new IOException("Corrupted record at offset " + validLength + " in " + segment);
+                }
+                if (length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer record = buffer.slice(buffer.position(), length);
+                try {
+                    blocks.add(decode(currentCodec.decode(record)));
+                } catch (IOException e) {
+                    throw new IOException("Corrupted record at offset " + validLength + " in " + segment + ": "
+                            + e.getMessage(), e);
+                }
+                buffer.position(buffer.position() + length);
+                validLength = buffer.position();
+                count++;
+            }
+            if (validLength < channel.size()) {
+                if (!last) {
+                    throw new IOException("Incomplete record at offset " + validLength + " in " + segment);
+                }
+                System.err.println("Truncated record in " + segment + " dropped");
+                channel.truncate(validLength);
+            }
+        }
+        return count;
+    }
+
+    private void track(int segment, List<Block> blocks) {
+        blocks.forEach(block -> lastIds.merge(segment, block.getId(), Math::max));
+        if (!blocks.isEmpty() && blocks.stream().allMatch(block -> block.isPruned() || block.getTransactions().isEmpty())) {
+            prunedSegments.add(segment);
+        }
+    }
+
+    private static byte[] encode(Block block) {
+        return BinaryCodec.encodeBlock(block);
+    }
+
+    private static Block decode(ByteBuffer record) throws IOException {
+        return BinaryCodec.decodeBlock(record);
+    }
+
+    /**
+     * Receives the blocks of forEach().
+     */
+    public interface BlockVisitor {
+        void visit(Block block) throws IOException;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
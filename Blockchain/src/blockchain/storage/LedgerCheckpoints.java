@@ -0,0 +1,186 @@
+package blockchain.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshots of the confirmed ledger at a given block, so a restart only books the blocks after the
+ * latest checkpoint into the ledger. Checkpoints are written by a background thread: the balances sorted by account,
+ * the height and hash of the block and a CRC32 checksum. Only the newest checkpoints are kept.
+ */
+public class LedgerCheckpoints implements Closeable {
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".dat";
+    private static final int MAGIC = 0x4c434b50; // "LCKP"
+
+    private final Path directory;
+    private final int kept;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ledger-checkpoints");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param directory usually the block store directory
+     * @param kept number of checkpoints kept on disk, older ones are deleted
+     */
+    public LedgerCheckpoints(Path directory, int kept) {
+        this.directory = directory;
+        this.kept = kept;
+    }
+
+    /**
+     * Writes the checkpoint in the background, the caller must not change the ledger afterwards.
+     */
+    public void writeAsync(Checkpoint checkpoint) {
+        writer.execute(() -> {
+            try {
+                write(checkpoint);
+                deleteOlder();
+            } catch (IOException e) {
+                System.err.println("cannot write ledger checkpoint at height " + checkpoint.getHeight()
+                        + "\n" + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * @return the checkpoints with a valid checksum from the newest to the oldest, each one is read when the
+     *         iteration reaches it
+     */
+    public Iterable<Checkpoint> newestFirst() {
+        List<Path> files = new ArrayList<>();
+        try {
+            files.addAll(list());
+        } catch (IOException e) {
+            System.err.println("cannot list ledger checkpoints\n" + e.getMessage());
+        }
+        Collections.reverse(files);
+        return () -> files.stream().map(LedgerCheckpoints::read).filter(Objects::nonNull).iterator();
+    }
+
+    /**
+     * Deletes all checkpoints, after pending writes are done.
+     */
+    public void clear() {
+        try {
+            writer.submit(() -> {
+                for (Path file : list()) {
+                    Files.delete(file);
+                }
+                return null;
+            }).get();
+        } catch (Exception e) {
+            System.err.println("cannot delete ledger checkpoints\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * Waits for pending writes.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Checkpoint checkpoint) throws IOException {
+        byte[] ledger = BinaryCodec.encodeLedger(new TreeMap<>(checkpoint.getLedger()));
+        Path file = directory.resolve(String.format("%s%010d%s", PREFIX, checkpoint.getHeight(), SUFFIX));
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(checkpoint.getHeight());
+            out.writeUTF(checkpoint.getBlockHash());
+            out.writeInt(ledger.length);
+            out.write(ledger);
+            out.writeLong(checksum(checkpoint.getHeight(), checkpoint.getBlockHash(), ledger));
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Checkpoint read(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int height = in.readInt();
+            String blockHash = in.readUTF();
+            byte[] ledger = new byte[in.readInt()];
+            in.readFully(ledger);
+            if (in.readLong() != checksum(height, blockHash, ledger)) {
+                System.err.println("Ledger checkpoint " + file + " has an invalid checksum, ignored");
+                return null;
+            }
+            return new Checkpoint(height, blockHash, BinaryCodec.decodeLedger(ByteBuffer.wrap(ledger)));
+        } catch (IOException e) {
+            System.err.println("cannot read ledger checkpoint " + file + "\n" + e.getMessage());
+            return null;
+        }
+    }
+
+    private void deleteOlder() throws IOException {
+        List<Path> files = list();
+        for (Path file : files.subList(0, Math.max(0, files.size() - kept))) {
+            Files.delete(file);
+        }
+    }
+
+    private List<Path> list() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(PREFIX)
+                            && file.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long checksum(int height, String blockHash, byte[] ledger) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(Integer.BYTES).putInt(0, height));
+        crc.update(blockHash.getBytes());
+        crc.update(ledger);
+        return crc.getValue();
+    }
+
+    /**
+     * Confirmed balances after the block at the given height of the main chain.
+     */
+    public static final class Checkpoint {
+        private final int height;
+        private final String blockHash;
+        private final Map<String, Integer> ledger;
+
+        public Checkpoint(int height, String blockHash, Map<String, Integer> ledger) {
+            this.height = height;
+            this.blockHash = blockHash;
+            this.ledger = ledger;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public String getBlockHash() {
+            return blockHash;
+        }
+
+        public Map<String, Integer> getLedger() {
+            return ledger;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package blockchain.storage;
+
+import blockchain.config.BlockchainConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encoding of the records in a segment file, stored as flag byte in the segment header.
+ * A segment keeps its codec for its whole life, so segments of different codecs can be mixed in one store.
+ * Public for the benchmarks, only BlockStore chooses the codec of a segment.
+ */
+public enum SegmentCodec {
+    PLAIN {
+        @Override
+        public byte[] encode(byte[] record) {
+            return record;
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer stored) {
+            return stored;
+        }
+
+        @Override
+        ByteBuffer decodePrefix(ByteBuffer stored, int length) {
+            return stored;
+        }
+    },
+    /**
+     * Deflate with a preset dictionary of the account names as BinaryCodec writes them. Every record is
+     * compressed on its own, so the dictionary supplies the repetitions a single block doesn't have.
+     */
+    DEFLATE {
+        @Override
+        public byte[] encode(byte[] record) {
+            return deflate(record);
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer stored) throws IOException {
+            return inflate(stored, Integer.MAX_VALUE);
+        }
+
+        @Override
+        ByteBuffer decodePrefix(ByteBuffer stored, int length) throws IOException {
+            return inflate(stored.duplicate(), length);
+        }
+    };
+
+    private static final SegmentCodec[] VALUES = values();
+    /** length of "-" and the hex key fingerprint that end every account name */
+    private static final int FINGERPRINT_SUFFIX = 17;
+    private static final byte[] DICTIONARY = buildDictionary();
+    /** Deflate expands at most this much, a longer announced record is corrupted */
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    public abstract byte[] encode(byte[] record);
+
+    /**
+     * @param stored the stored record, may be a slice of a segment read at once
+     * @return the record, the given buffer itself if it isn't compressed
+     */
+    public abstract ByteBuffer decode(ByteBuffer stored) throws IOException;
+
+    /**
+     * Decodes only the start of the record, e.g. to read the block id of a record that may be skipped.
+     * @return at least the given number of bytes of the record, fewer if the record is shorter
+     */
+    abstract ByteBuffer decodePrefix(ByteBuffer stored, int length) throws IOException;
+
+    byte code() {
+        return (byte) ordinal();
+    }
+
+    static SegmentCodec of(byte code) throws IOException {
+        if (code < 0 || code >= VALUES.length) {
+            throw new IOException("Unknown segment codec " + code);
+        }
+        return VALUES[code];
+    }
+
+    /**
+     * The owners of the accounts with the "-" before the fingerprint, each preceded by the varint length
+     * BinaryCodec writes before the whole account name. The dictionary is part of the on-disk format.
+     * Deflate prefers matches near the end of the dictionary, so the most frequent names come last.
+     */
+    private static byte[] buildDictionary() {
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+        for (String owner : new String[] {"Balthazar", "Caspar", "Mary", "Peter", BlockchainConfig.MINER_ACCOUNT}) {
+            appendAccountPrefix(dictionary, owner);
+        }
+        return dictionary.toByteArray();
+    }
+
+    private static void appendAccountPrefix(ByteArrayOutputStream dictionary, String owner) {
+        byte[] bytes = owner.getBytes(StandardCharsets.UTF_8);
+        dictionary.write(bytes.length + FINGERPRINT_SUFFIX);
+        dictionary.writeBytes(bytes);
+        dictionary.write('-');
+    }
+
+    private static byte[] deflate(byte[] record) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(record);
+            deflater.finish();
+            byte[] buffer = new byte[record.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            byte[] stored = new byte[Integer.BYTES + length];
+            writeInt(stored, record.length);
+            System.arraycopy(buffer, 0, stored, Integer.BYTES, length);
+            return stored;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static ByteBuffer inflate(ByteBuffer stored, int limit) throws IOException {
+        if (stored.remaining() < Integer.BYTES) {
+            throw new IOException("Compressed record without length");
+        }
+        int announced = stored.getInt();
+        if (announced < 0 || announced > (long) stored.remaining() * MAX_DEFLATE_RATIO) {
+            throw new IOException("Invalid length " + announced + " of compressed record");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            byte[] record = new byte[Math.min(limit, announced)];
+            inflater.setInput(stored);
+            int length = 0;
+            while (length < record.length) {
+                int inflated = inflater.inflate(record, length, record.length - length);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(DICTIONARY);
+                } else if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Compressed record shorter than announced");
+                }
+                length += inflated;
+            }
+            return ByteBuffer.wrap(record);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed record: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeInt(byte[] target, int value) {
+        target[0] = (byte) (value >>> 24);
+        target[1] = (byte) (value >>> 16);
+        target[2] = (byte) (value >>> 8);
+        target[3] = (byte) value;
+    }
+}